@@ -0,0 +1,4 @@
+#!/usr/bin/ksh
+mvn compile
+port=${1:-8483}
+mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-s $port"
@@ -0,0 +1,110 @@
+package CSc483;
+
+/**
+ * DumpReaderBenchmark class
+ * Compares reading a large generated dump file with DumpReader against the Scanner loop
+ * WikipediaParser used before (nextLine(), trim(), isTitle()). One op reads the whole file, so
+ * throughput is sizeMb divided by the reported time. The file is 2 GB by default; pass
+ * -p sizeMb=256 to JMH for a quicker run.
+ */
+
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class DumpReaderBenchmark {
+
+  @Param({"2048"})
+  int sizeMb;
+
+  Path dump;
+  WikipediaParser parser;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dump = Files.createTempFile("watson-dump", ".txt");
+    long target = ((long) sizeMb) << 20;
+    long written = 0;
+    int article = 0;
+    Random random = new Random(483);
+    BufferedWriter out = Files.newBufferedWriter(dump, StandardCharsets.UTF_8);
+    while (written < target){
+      String title = "[[Synthetic Article " + (article++) + "]]\n\n";
+      out.write(title);
+      written += title.length();
+      for (int l = 0; l < 20; l++){
+        String line = SyntheticDump.sentence(random, 15) + "\n";
+        out.write(line);
+        written += line.length();
+      }
+    }
+    out.close();
+    parser = new WikipediaParser();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(dump);
+  }
+
+  @Benchmark
+  public long dumpReader() throws IOException {
+    long titles = 0;
+    long chars = 0;
+    DumpReader reader = new DumpReader(dump);
+    while (reader.nextLine()){
+      if (reader.isTitle()){
+        titles++;
+      } else {
+        chars += reader.getLine().length();
+      }
+    }
+    reader.close();
+    return titles + chars;
+  }
+
+  @Benchmark
+  public long scanner() throws IOException {
+    long titles = 0;
+    long chars = 0;
+    Scanner reader = new Scanner(dump.toFile());
+    while (reader.hasNext()){
+      String line = reader.nextLine().trim();
+      if (parser.isTitle(line)){
+        titles++;
+      } else {
+        chars += line.length();
+      }
+    }
+    reader.close();
+    return titles + chars;
+  }
+
+}
@@ -0,0 +1,35 @@
+package CSc483;
+
+/**
+ * LegacyStopWords class
+ * A copy of TextLemmenizer's original stop word and punctuation filtering (binary search over
+ * STOPWORDS, String concatenation, and a regex compiled per token), kept only so the benchmarks
+ * can compare the current implementation against it.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+public class LegacyStopWords {
+
+  public static String removeStopWords(ArrayList<String> toRemoveFrom){
+    String finalString = "";
+    int stopWordCount = 0;
+    for (String testString : toRemoveFrom){
+      if (toRemoveFrom.size() - 4 > stopWordCount && Arrays.binarySearch(TextLemmenizer.STOPWORDS,testString) >= 0) {
+        //Skip over stop words unless we have less than 4 words in toRemoveFrom
+        stopWordCount++;
+        continue;
+      }
+
+      finalString += " " + testString;
+    }
+    return finalString;
+  }
+
+  public static boolean isPunctuation(String token){
+    return Pattern.matches("\\p{Punct}+", token);
+  }
+
+}
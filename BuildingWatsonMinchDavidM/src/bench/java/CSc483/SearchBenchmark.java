@@ -0,0 +1,96 @@
+package CSc483;
+
+/**
+ * SearchBenchmark class
+ * JMH benchmarks for the two end to end paths: indexing a synthetic Wikipedia dump, and
+ * scoring the whole bundled questions.txt workload against an index built from that dump.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@Fork(1)
+public class SearchBenchmark {
+
+  @Param({"4"})
+  int files;
+
+  @Param({"50"})
+  int articlesPerFile;
+
+  //Whether indexDump parses in bulk load mode (see WikipediaParser.newWriterConfig)
+  @Param({"false", "true"})
+  boolean bulkLoad;
+
+  Path dumpDir;
+  Path indexDir;
+  WikipediaParser parser;
+  HashMap<String, String> lemmenizedQueries;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dumpDir = SyntheticDump.write(Files.createTempDirectory("watson-dump"), files, articlesPerFile, 10);
+    indexDir = Files.createTempDirectory("watson-index");
+    TextLemmenizer.warmUp();
+    parser = new WikipediaParser();
+    parser.parse(dumpDir.toString(), indexDir.toString(), Runtime.getRuntime().availableProcessors());
+    ArrayList<String> queries = WatsonMinch.getQueriesFromFile();
+    lemmenizedQueries = TextLemmenizer.lemmenizeQueries(queries);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    SyntheticDump.delete(dumpDir);
+    SyntheticDump.delete(indexDir);
+  }
+
+  //Scores every clue in questions.txt, one op is the whole question set
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3, time = 2)
+  @Measurement(iterations = 5, time = 2)
+  public HashMap<String, ArrayList<ScoredDocument>> scoreQuestions(){
+    return parser.score(lemmenizedQueries);
+  }
+
+  //Parses the whole synthetic dump into a fresh index, one op is the whole dump
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 1)
+  @Measurement(iterations = 3)
+  public int indexDump() throws IOException {
+    Path freshIndex = Files.createTempDirectory("watson-index");
+    WikipediaParser.BULK_LOAD = bulkLoad;
+    WikipediaParser.RAM_BUFFER_MB = bulkLoad ? WikipediaParser.BULK_RAM_BUFFER_MB : 16;
+    WikipediaParser indexer = new WikipediaParser();
+    indexer.parse(dumpDir.toString(), freshIndex.toString(), Runtime.getRuntime().availableProcessors());
+    int documents = indexer.getIndex().numDocs();
+    indexer.getIndex().close();
+    SyntheticDump.delete(freshIndex);
+    return documents;
+  }
+
+}
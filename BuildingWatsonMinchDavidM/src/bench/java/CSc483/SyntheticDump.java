@@ -0,0 +1,62 @@
+package CSc483;
+
+/**
+ * SyntheticDump class
+ * This class writes made up Wikipedia dump files in the same format as the real wiki-subset files:
+ * a [[Title]] line followed by lines of article text. The words are drawn from a fixed vocabulary
+ * with a fixed seed, so every run of a benchmark indexes exactly the same text.
+ */
+
+import java.util.Random;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class SyntheticDump {
+
+  static final String[] VOCABULARY = {"the", "dominant", "paper", "in", "our", "nation", "capital", "among", "top",
+    "papers", "circulation", "practice", "presidential", "use", "of", "force", "dates", "resolution", "island", "near",
+    "mainland", "China", "journal", "shared", "Pulitzer", "stories", "about", "insider", "trading", "song", "says",
+    "smile", "heart", "looks", "laughable", "charity", "bell", "ringers", "started", "accepting", "digital",
+    "donations", "red", "kettle", "Washington", "Street", "Salvation", "Army", "Broadway", "lyrics", "was", "were"};
+
+  //Writes `files` dump files of `articles` articles each, every article has `lines` lines of text
+  public static Path write(Path dir, int files, int articles, int lines) throws IOException {
+    Files.createDirectories(dir);
+    Random random = new Random(483);
+    for (int f = 0; f < files; f++){
+      File file = dir.resolve(String.format("enwiki-20140602-pages-articles.xml-%04d.txt", f)).toFile();
+      PrintWriter out = new PrintWriter(file, "UTF-8");
+      for (int a = 0; a < articles; a++){
+        out.println("[[Synthetic Article " + f + " " + a + "]]");
+        out.println();
+        for (int l = 0; l < lines; l++){
+          out.println(sentence(random, 15));
+        }
+      }
+      out.close();
+    }
+    return dir;
+  }
+
+  public static String sentence(Random random, int words){
+    StringBuilder sentence = new StringBuilder();
+    for (int w = 0; w < words; w++){
+      if (w > 0)
+        sentence.append(' ');
+      sentence.append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+    }
+    return sentence.append('.').toString();
+  }
+
+  public static void delete(Path dir) throws IOException {
+    if (!Files.exists(dir))
+      return;
+    Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+  }
+
+}
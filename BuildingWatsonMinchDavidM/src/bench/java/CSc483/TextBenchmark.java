@@ -0,0 +1,145 @@
+package CSc483;
+
+/**
+ * TextBenchmark class
+ * JMH benchmarks for the per-line text processing done while parsing and querying:
+ * lemmenizing short and long inputs (with the FULL and FAST profiles), Porter stemming, stop word
+ * removal and title detection.
+ * The *Legacy benchmarks run the original implementations from LegacyStopWords for comparison.
+ */
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextBenchmark {
+
+  String shortText;
+  String longText;
+  ArrayList<String> articleTokens;
+  char[][] articleChars;
+  char[] termBuffer;
+  Stemmer stemmer;
+  String[] titleLines;
+  WikipediaParser parser;
+  int next;
+
+  @Setup
+  public void setUp(){
+    Random random = new Random(483);
+    shortText = "The dominant paper in our nation's capital, it's among the top 10 U.S. papers in circulation";
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 40; i++){
+      text.append(SyntheticDump.sentence(random, 15)).append(' ');
+    }
+    longText = text.toString();
+    articleTokens = new ArrayList<String>();
+    for (int i = 0; i < 2000; i++){
+      articleTokens.add(SyntheticDump.VOCABULARY[random.nextInt(SyntheticDump.VOCABULARY.length)].toLowerCase());
+      if (i % 10 == 0)
+        articleTokens.add(".");
+    }
+    articleChars = new char[articleTokens.size()][];
+    for (int i = 0; i < articleChars.length; i++){
+      articleChars[i] = articleTokens.get(i).toCharArray();
+    }
+    termBuffer = new char[64];
+    stemmer = new Stemmer();
+    titleLines = new String[]{"[[The Washington Post]]", "The [[Washington Post]] is a paper", "[[Salvation Army|Army]]", "", "[[Broadway]]"};
+    parser = new WikipediaParser();
+    TextLemmenizer.warmUp();
+  }
+
+  @Benchmark
+  public String lemmenizeShort(){
+    return TextLemmenizer.lemmenizeText(shortText);
+  }
+
+  @Benchmark
+  public String lemmenizeLong(){
+    return TextLemmenizer.lemmenizeText(longText);
+  }
+
+  //The same two inputs through the FAST normalization profile, which skips CoreNLP
+  @Benchmark
+  public String lemmenizeShortFast(){
+    return TextLemmenizer.lemmenizeText(shortText, NormalizationProfile.FAST.getAnalyzer());
+  }
+
+  @Benchmark
+  public String lemmenizeLongFast(){
+    return TextLemmenizer.lemmenizeText(longText, NormalizationProfile.FAST.getAnalyzer());
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public String stem(){
+    String word = articleTokens.get(next++ % articleTokens.size());
+    return new Stemmer().stem(word);
+  }
+
+  //The reusable path: one Stemmer, words stemmed in place in a term buffer as StemmerFilter does.
+  //Run with -prof gc to check that it allocates nothing per token.
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int stemInPlace(){
+    char[] word = articleChars[next++ % articleChars.length];
+    System.arraycopy(word, 0, termBuffer, 0, word.length);
+    return stemmer.stem(termBuffer, 0, word.length);
+  }
+
+  @Benchmark
+  public String removeStopWords(){
+    return TextLemmenizer.removeStopWords(articleTokens);
+  }
+
+  @Benchmark
+  public String removeStopWordsLegacy(){
+    return LegacyStopWords.removeStopWords(articleTokens);
+  }
+
+  //Checks every token of the article, as normalizeToken does on a cache miss
+  @Benchmark
+  public int punctuation(){
+    int count = 0;
+    for (String token : articleTokens){
+      if (TextLemmenizer.isPunctuation(token))
+        count++;
+    }
+    return count;
+  }
+
+  @Benchmark
+  public int punctuationLegacy(){
+    int count = 0;
+    for (String token : articleTokens){
+      if (LegacyStopWords.isPunctuation(token))
+        count++;
+    }
+    return count;
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public boolean isTitle(){
+    return parser.isTitle(titleLines[next++ % titleLines.length]);
+  }
+
+}
@@ -0,0 +1,103 @@
+package CSc483;
+
+import java.io.CharArrayReader;
+import java.io.Reader;
+
+/**
+ * ArticleBuffer class
+ * This class collects the lines of one Wikipedia article into a single reusable character
+ * buffer, joining the lines with a separator (a single space unless another is given).
+ * It replaces building the article with String concatenation, which copied the whole article
+ * again for every line.
+ * A maxChars of 0 or less means no limit. Otherwise the buffer never grows past maxChars characters;
+ * once an article reaches that size the rest of its text is dropped, so even a pathological article
+ * can only hold maxChars characters on the heap.
+ * reader() hands the text to Lucene without copying it into a String.
+ * Call clear() between articles; the backing array is kept and reused.
+ */
+
+public class ArticleBuffer {
+
+  char[] buffer;
+  int length;
+  int maxChars;
+  char separator;
+  boolean truncated;
+
+  public ArticleBuffer(int maxChars){
+    this(maxChars, ' ');
+  }
+
+  //Largest array the JVM will reliably allocate
+  private static final int UNLIMITED = Integer.MAX_VALUE - 8;
+
+  public ArticleBuffer(int maxChars, char separator){
+    this.maxChars = (maxChars > 0) ? maxChars : UNLIMITED;
+    this.separator = separator;
+    this.buffer = new char[Math.min(this.maxChars, 4096)];
+    this.length = 0;
+    this.truncated = false;
+  }
+
+  //Adds a line to the article. Empty lines are skipped, and text past maxChars is dropped.
+  public void append(CharSequence line){
+    if (line.length() == 0 || truncated)
+      return;
+    int separatorLength = (length == 0) ? 0 : 1;
+    int toCopy = Math.min(line.length(), maxChars - length - separatorLength);
+    if (toCopy < line.length())
+      truncated = true;
+    if (toCopy <= 0)
+      return;
+    ensureCapacity(length + separatorLength + toCopy);
+    if (separatorLength == 1)
+      buffer[length++] = separator;
+    if (line instanceof String){
+      ((String) line).getChars(0, toCopy, buffer, length);
+    } else {
+      for (int i = 0; i < toCopy; i++){
+        buffer[length + i] = line.charAt(i);
+      }
+    }
+    length += toCopy;
+  }
+
+  //Grows by doubling, but never past maxChars
+  private void ensureCapacity(int needed){
+    if (needed <= buffer.length)
+      return;
+    int newCapacity = (int) Math.min(maxChars, Math.max(needed, buffer.length * 2L));
+    char[] newBuffer = new char[newCapacity];
+    System.arraycopy(buffer, 0, newBuffer, 0, length);
+    buffer = newBuffer;
+  }
+
+  public void clear(){
+    length = 0;
+    truncated = false;
+  }
+
+  public int length(){
+    return this.length;
+  }
+
+  public int capacity(){
+    return this.buffer.length;
+  }
+
+  public boolean isTruncated(){
+    return this.truncated;
+  }
+
+  //Reads the current text straight out of the backing array. It must be consumed before the
+  //buffer is appended to or cleared again.
+  public Reader reader(){
+    return new CharArrayReader(buffer, 0, length);
+  }
+
+  @Override
+  public String toString(){
+    return new String(buffer, 0, length);
+  }
+
+}
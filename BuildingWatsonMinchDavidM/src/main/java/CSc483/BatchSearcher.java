@@ -0,0 +1,263 @@
+package CSc483;
+
+/**
+ * BatchSearcher class
+ * This class runs a whole batch of lemmenized queries against one Lucene index.
+ * One IndexSearcher is built for the index and shared by every query.
+ * Queries are spread across a query executor, and the IndexSearcher can be given its own
+ * executor so that a single query also searches the index segments (or shards, see ShardedReader)
+ * in parallel.
+ * The queries have already been through WatsonAnalyzer (see TextLemmenizer.lemmenizeText), the
+ * same analyzer the index was built with, so their terms are looked up as they are instead of
+ * being tokenized a second time. Each term becomes an optional (OR) clause.
+ * If a result cache is given, a lemmenized query that was already searched is answered from it.
+ * A searcher knows the NormalizationProfile of its index, so a query can be lemmenized for exactly
+ * the index it will run on (see getProfile), even while a refresh swaps in one built with another.
+ * Titles of the top documents are read from the memory mapped TitleDictionary of their segment, so
+ * rendering them costs no I/O and no heap beyond the Strings returned. A segment without a
+ * dictionary falls back to the docid doc values, and indexes built before the titles were doc
+ * values to the stored docid.
+ * Only the top 10 are wanted, not how many documents matched, so TOTAL_HITS_THRESHOLD can be
+ * lowered to hitsPerPage to stop counting hits. Lucene then skips whole blocks of postings whose
+ * best possible score can't beat the 10th best document found so far (block-max WAND). The top 10
+ * are the same either way, but which is faster depends on the queries: WAND wins when a few rare
+ * terms decide the ranking, while many terms of similar weight are scored faster exhaustively.
+ * If a Reranker is given, the search has two phases: the best rerankDepth documents by BM25 are
+ * fetched, the reranker reorders them using the query's category as well, and the best 10 of
+ * those are returned.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+
+public class BatchSearcher {
+
+  public static final int hitsPerPage = 10; //We only want the 10 best results
+
+  //How many matches are counted exactly before Lucene may skip documents that can't make the top
+  //10. Integer.MAX_VALUE scores every match, hitsPerPage skips the most.
+  public static int TOTAL_HITS_THRESHOLD = Integer.MAX_VALUE;
+
+  IndexSearcher searcher;
+  int totalHitsThreshold = 0; //This searcher's own threshold, 0 follows TOTAL_HITS_THRESHOLD
+  TitleDictionary[] titles; //One per segment, null where the segment has none
+  ExecutorService queryExecutor;
+  QueryCache<ArrayList<ScoredDocument>> resultCache;
+  Object generation; //Of the index, results are only cached for it
+  NormalizationProfile profile; //The index was built with it, so queries have to be lemmenized with it
+  Reranker reranker;
+  int rerankDepth = hitsPerPage;
+
+  private static final Metrics.Timer buildTimer = Metrics.timer("watson_query_build_seconds",
+      "Time to turn a lemmenized query into a Lucene query");
+  private static final Metrics.Timer searchTimer = Metrics.timer("watson_search_seconds",
+      "Time to find the top documents of one query");
+  private static final Metrics.Timer fetchTimer = Metrics.timer("watson_title_fetch_seconds",
+      "Time to look up the titles of one query's top documents");
+  private static final Metrics.Counter cacheHits = Metrics.counter("watson_result_cache_hits_total",
+      "Queries answered from the result cache");
+
+  //queryExecutor runs whole queries concurrently, segmentExecutor (may be null) is handed to the
+  //IndexSearcher so each query searches the index segments in parallel.
+  public BatchSearcher(IndexReader index, ExecutorService queryExecutor, ExecutorService segmentExecutor){
+    if (segmentExecutor == null){
+      this.searcher = new IndexSearcher(index);
+    } else {
+      this.searcher = new IndexSearcher(index, segmentExecutor){
+        @Override
+        protected LeafSlice[] slices(List<LeafReaderContext> leaves){
+          LeafSlice[] shards = ShardedReader.slices(leaves);
+          return (shards != null) ? shards : super.slices(leaves);
+        }
+      };
+    }
+    this.queryExecutor = queryExecutor;
+    this.titles = TitleDictionary.openAll(index);
+    this.generation = WikipediaParser.generationOf(index);
+    try {
+      this.profile = NormalizationProfile.of(index);
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.err.println("Error: The index's normalization profile could not be read, assuming " + NormalizationProfile.FULL + ".");
+      this.profile = NormalizationProfile.FULL;
+    }
+  }
+
+  //Uses a pool of daemon threads, one per core, for both whole queries and segments
+  public BatchSearcher(IndexReader index){
+    this(index, newPool("watson-query"), newPool("watson-segment"));
+  }
+
+  //Returns the top documents for every query, keyed by the original (un-lemmenized) query.
+  //A query that fails to search is reported and gets an empty result list.
+  public HashMap<String, ArrayList<ScoredDocument>> search(Map<String, String> lemmenizedQueries){
+    return search(lemmenizedQueries, null);
+  }
+
+  //lemmenizedCategories (may be null) maps an original query to its lemmenized category, for the reranker
+  public HashMap<String, ArrayList<ScoredDocument>> search(Map<String, String> lemmenizedQueries,
+                                                           Map<String, String> lemmenizedCategories){
+    HashMap<String, Future<ArrayList<ScoredDocument>>> pending = new HashMap<String, Future<ArrayList<ScoredDocument>>>();
+    for (Map.Entry<String, String> entry : lemmenizedQueries.entrySet()){
+      String lemmenizedQuery = entry.getValue();
+      String lemmenizedCategory = lemmenizedCategories == null ? "" : lemmenizedCategories.getOrDefault(entry.getKey(), "");
+      pending.put(entry.getKey(), queryExecutor.submit(() -> search(lemmenizedQuery, lemmenizedCategory)));
+    }
+
+    HashMap<String, ArrayList<ScoredDocument>> scores = new HashMap<String, ArrayList<ScoredDocument>>();
+    for (Map.Entry<String, Future<ArrayList<ScoredDocument>>> entry : pending.entrySet()){
+      ArrayList<ScoredDocument> documents = new ArrayList<ScoredDocument>();
+      try {
+        documents = entry.getValue().get();
+      } catch (ExecutionException e) {
+        System.err.println(e.getCause().getMessage());
+        System.err.println("Error scoring the query '" + entry.getKey() + "', skipping.");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      scores.put(entry.getKey(), documents);
+    }
+    return scores;
+  }
+
+  //Runs a single lemmenized query on the calling thread
+  public ArrayList<ScoredDocument> search(String lemmenizedQuery) throws IOException {
+    return search(lemmenizedQuery, "");
+  }
+
+  public ArrayList<ScoredDocument> search(String lemmenizedQuery, String lemmenizedCategory) throws IOException {
+    //Reranked results also depend on the category, and must not be mistaken for BM25 only results
+    String cacheKey = reranker == null ? lemmenizedQuery : lemmenizedQuery + "\n" + lemmenizedCategory;
+    if (resultCache != null){
+      ArrayList<ScoredDocument> cached = resultCache.get(cacheKey, generation);
+      if (cached != null){
+        cacheHits.add(1);
+        return new ArrayList<ScoredDocument>(cached);
+      }
+    }
+    long start = System.nanoTime();
+    Query q = buildQuery(lemmenizedQuery);
+    long built = System.nanoTime();
+    buildTimer.record(built - start);
+
+    ArrayList<ScoredDocument> documents = new ArrayList<ScoredDocument>();
+    int candidates = reranker == null ? hitsPerPage : Math.max(hitsPerPage, rerankDepth);
+    int threshold = totalHitsThreshold > 0 ? totalHitsThreshold : TOTAL_HITS_THRESHOLD;
+    TopDocs docs = searcher.search(q, TopScoreDocCollector.createSharedManager(candidates, null, threshold));
+    ScoreDoc[] hits = docs.scoreDocs;
+    long searched = System.nanoTime();
+    searchTimer.record(searched - built);
+
+    for(int i=0;i<hits.length;++i) {
+      int docId = hits[i].doc;
+      ScoredDocument thisResult = new ScoredDocument(getTitle(docId), hits[i].score, docId);
+      documents.add(thisResult);
+    }
+    fetchTimer.record(System.nanoTime() - searched);
+    boolean cacheable = true;
+    if (reranker != null){
+      ArrayList<ScoredDocument> reranked = reranker.rerank(searcher.getIndexReader(), profile, lemmenizedQuery,
+                                                           lemmenizedCategory, documents);
+      if (reranked == null){
+        //The BM25 order isn't what the cache key stands for, so the next ask reranks again
+        cacheable = false;
+      } else {
+        documents = reranked;
+      }
+      if (documents.size() > hitsPerPage)
+        documents = new ArrayList<ScoredDocument>(documents.subList(0, hitsPerPage));
+    }
+    if (resultCache != null && cacheable)
+      resultCache.put(cacheKey, new ArrayList<ScoredDocument>(documents), System.nanoTime() - start, generation);
+    return documents;
+  }
+
+  private static final Set<String> titleField = Collections.singleton("docid");
+
+  //The title of a document, from the dictionary (or else the doc values) of the segment it's in
+  String getTitle(int docId) throws IOException {
+    List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+    LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+    if (titles[leaf.ord] != null)
+      return titles[leaf.ord].getTitle(docId - leaf.docBase);
+    SortedDocValues titles = leaf.reader().getSortedDocValues("docid");
+    if (titles != null && titles.advanceExact(docId - leaf.docBase))
+      return titles.binaryValue().utf8ToString();
+    //An index from before titles were doc values
+    return searcher.doc(docId, titleField).get("docid");
+  }
+
+  //One optional clause per term. The terms are the analyzer's tokens as they are, so they only all
+  //match an index built with the same analyzer (see NormalizationProfile.isRecorded).
+  public static Query buildQuery(String lemmenizedQuery){
+    BooleanQuery.Builder query = new BooleanQuery.Builder();
+    for (String term : lemmenizedQuery.split(" ")){
+      if (!term.isEmpty())
+        query.add(new TermQuery(new Term("text", term)), BooleanClause.Occur.SHOULD);
+    }
+    return query.build();
+  }
+
+  //The cache must belong to the same index generation as this searcher's reader
+  public void setResultCache(QueryCache<ArrayList<ScoredDocument>> resultCache){
+    this.resultCache = resultCache;
+  }
+
+  //Reranks the best depth documents of every query, a null reranker searches by BM25 alone
+  public void setReranker(Reranker reranker, int depth){
+    this.reranker = reranker;
+    this.rerankDepth = depth;
+  }
+
+  //Lets searchers of the same index differ, e.g. when comparing configurations (see ConfigurationSweep)
+  public void setTotalHitsThreshold(int totalHitsThreshold){
+    this.totalHitsThreshold = totalHitsThreshold;
+  }
+
+  public NormalizationProfile getProfile(){
+    return this.profile;
+  }
+
+  public IndexSearcher getSearcher(){
+    return this.searcher;
+  }
+
+  //Daemon threads, so a finished run never waits on an idle pool
+  public static ExecutorService newPool(String name){
+    AtomicInteger count = new AtomicInteger();
+    ThreadFactory factory = runnable -> {
+      Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), factory);
+  }
+
+}
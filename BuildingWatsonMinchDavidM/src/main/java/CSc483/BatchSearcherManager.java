@@ -0,0 +1,140 @@
+package CSc483;
+
+/**
+ * BatchSearcherManager class
+ * Keeps the BatchSearcher every query uses up to date with the index on disk, so a parse (in this
+ * process or another one) shows up in a running Watson without a restart.
+ * It is a Lucene ReferenceManager, with the same rules as SearcherManager: a query acquire()s the
+ * current searcher and release()s it when done. A refresh reopens the index only if it has a new
+ * commit (WikipediaParser commits after every file, so an incremental or still running parse is
+ * picked up file by file), builds a searcher on it and swaps it in atomically. Queries that
+ * already hold the old searcher finish on it, and its reader is only closed once the last of them
+ * releases it, so no query ever sees a closed reader and none waits for a refresh.
+ * Both plain and sharded indexes (see ShardedReader) are reopened, even one that was split into
+ * another number of shards. Searchers share the manager's thread pools, result cache and reranker,
+ * and the result cache is dropped whenever a new index generation is swapped in.
+ * A rebuild may also change the NormalizationProfile. Nothing global is switched for it: each
+ * searcher carries the profile of its own index, and a query is lemmenized with the profile of
+ * the searcher it has acquired, so it is never analyzed for one index and run on another.
+ *
+ * USAGE:
+ * BatchSearcher searcher = manager.acquire();
+ * try {
+ *   searcher.search(TextLemmenizer.lemmenizeQuery(query, searcher.getProfile()));
+ * } finally {
+ *   manager.release(searcher);
+ * }
+ */
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.store.AlreadyClosedException;
+
+public class BatchSearcherManager extends ReferenceManager<BatchSearcher> {
+
+  ExecutorService queryExecutor;
+  ExecutorService segmentExecutor;
+  QueryCache<ArrayList<ScoredDocument>> resultCache;
+  Reranker reranker;
+  int rerankDepth;
+  ScheduledExecutorService refresher;
+  volatile boolean closed;
+
+  private static final Metrics.Counter refreshes = Metrics.counter("watson_index_refreshes_total",
+      "Times a newer commit of the index was swapped in while running");
+
+  //Keeps its own reference to index, so the caller may close theirs whenever it likes
+  public BatchSearcherManager(IndexReader index, QueryCache<ArrayList<ScoredDocument>> resultCache,
+                              Reranker reranker, int rerankDepth){
+    this.queryExecutor = BatchSearcher.newPool("watson-query");
+    this.segmentExecutor = BatchSearcher.newPool("watson-segment");
+    this.resultCache = resultCache;
+    this.reranker = reranker;
+    this.rerankDepth = rerankDepth;
+    index.incRef();
+    this.current = newSearcher(index);
+  }
+
+  private BatchSearcher newSearcher(IndexReader index){
+    BatchSearcher searcher = new BatchSearcher(index, queryExecutor, segmentExecutor);
+    searcher.setResultCache(resultCache);
+    searcher.setReranker(reranker, rerankDepth);
+    return searcher;
+  }
+
+  //Checks for a new commit every intervalMillis on a background thread
+  public synchronized void startRefreshing(long intervalMillis){
+    if (refresher != null || intervalMillis <= 0)
+      return;
+    refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "watson-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+    refresher.scheduleWithFixedDelay(() -> {
+      try {
+        maybeRefresh();
+      } catch (AlreadyClosedException e) {
+        //Being closed, afterClose() is about to stop the refresher
+      } catch (Exception e) {
+        if (closed)
+          return; //Closed during the refresh, whatever it was reading no longer matters
+        //Keep serving the index we have, and try again next time
+        e.printStackTrace();
+        System.err.println("Error: The index could not be refreshed.");
+      }
+    }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  protected BatchSearcher refreshIfNeeded(BatchSearcher referenceToRefresh) throws IOException {
+    IndexReader newer = ShardedReader.openIfChanged(referenceToRefresh.getSearcher().getIndexReader());
+    if (newer == null)
+      return null; //Nothing new, or a reader that can't be reopened
+    //Searches of the old index miss the cache from here on, and can't fill it either
+    if (resultCache != null)
+      resultCache.invalidate(WikipediaParser.generationOf(newer));
+    refreshes.add(1);
+    BatchSearcher searcher = newSearcher(newer);
+    System.out.println("Refreshed the index, it now has " + newer.numDocs() + " documents.");
+    if (searcher.getProfile() != referenceToRefresh.getProfile())
+      System.out.println("The index was rebuilt with the " + searcher.getProfile() + " profile, new queries will be analyzed with it.");
+    return searcher;
+  }
+
+  @Override
+  protected boolean tryIncRef(BatchSearcher reference){
+    return reference.getSearcher().getIndexReader().tryIncRef();
+  }
+
+  @Override
+  protected void decRef(BatchSearcher reference) throws IOException {
+    reference.getSearcher().getIndexReader().decRef();
+  }
+
+  @Override
+  protected int getRefCount(BatchSearcher reference){
+    return reference.getSearcher().getIndexReader().getRefCount();
+  }
+
+  @Override
+  protected synchronized void afterClose() throws IOException {
+    closed = true;
+    //No interrupt: it would close the NIO channels a running refresh is reading the index through.
+    //Nor a wait, since close() holds this manager's lock, which the refresh needs to swap in its
+    //searcher. The refresh finds the manager closed, drops what it opened and the thread ends.
+    if (refresher != null)
+      refresher.shutdown();
+    queryExecutor.shutdown();
+    segmentExecutor.shutdown();
+  }
+
+}
@@ -0,0 +1,303 @@
+package CSc483;
+
+/**
+ * ConfigurationSweep class
+ * Evaluates a whole grid of retrieval configurations against the Jeopardy questions in one run,
+ * instead of one JVM (and one index and CoreNLP load) per configuration.
+ * A grid gives the values to try for each setting, and every combination of them is evaluated:
+ *   similarity=bm25,bm25:0.9:0.4,classic,lm;categories=yes,no;rerank=0,50;wand=no,yes
+ * similarity  bm25 (optionally bm25:k1:b), classic (tf-idf) or lm (Dirichlet language model). All
+ *             of them read the norms the index already has, so none of them needs a re-index.
+ * categories  whether the clue's Jeopardy category is added to the query (and given to the reranker).
+ * rerank      how many BM25 candidates FeatureReranker reorders, 0 doesn't rerank.
+ * wand        whether documents that can't make the top 10 are skipped (see BatchSearcher).
+ * A setting that isn't in the grid keeps its default, the first value listed above.
+ * The normalization profile (LEMMENIZE, STEM) isn't a setting: queries have to be normalized the
+ * way the loaded index was built, so comparing profiles takes an index per profile.
+ * Every configuration gets its own BatchSearcher over the one shared index, without a result cache.
+ * The clues and categories are lemmenized once for all of them, and every (question, configuration)
+ * search is one task on a shared pool. The tasks go in question by question, so JIT warm-up and
+ * whatever else the machine is doing are spread evenly over the configurations.
+ * Each configuration's precision at 1 and at 10 (right responses among the top 10, over 10), share
+ * of clues answered in the top 10 (Hit@10, the "in top 10" count of a normal run), mean reciprocal
+ * rank and search latency percentiles are reported. A clue usually has one right response, so P@10
+ * is at most 0.1 for it, and Hit@10 is the easier number to compare configurations by.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+
+public class ConfigurationSweep {
+
+  public static final String defaultGrid = "similarity=bm25,classic,lm;categories=yes,no";
+
+  //One combination of settings
+  public static class Configuration {
+    final String similarity;
+    final boolean categories;
+    final int rerankDepth;
+    final boolean wand;
+
+    public Configuration(String similarity, boolean categories, int rerankDepth, boolean wand){
+      this.similarity = similarity;
+      this.categories = categories;
+      this.rerankDepth = rerankDepth;
+      this.wand = wand;
+      newSimilarity(); //Fails now on a similarity that doesn't exist
+    }
+
+    Similarity newSimilarity(){
+      String[] parts = similarity.split(":");
+      switch (parts[0]){
+        case "bm25":
+          if (parts.length == 3)
+            return new BM25Similarity(Float.parseFloat(parts[1]), Float.parseFloat(parts[2]));
+          if (parts.length == 1)
+            return new BM25Similarity();
+          break;
+        case "classic":
+          return new ClassicSimilarity();
+        case "lm":
+          return new LMDirichletSimilarity();
+      }
+      throw new IllegalArgumentException("Unknown similarity '" + similarity + "', expected bm25, bm25:k1:b, classic or lm.");
+    }
+
+    @Override
+    public String toString(){
+      return "similarity=" + similarity + " categories=" + (categories ? "yes" : "no")
+             + " rerank=" + rerankDepth + " wand=" + (wand ? "yes" : "no");
+    }
+  }
+
+  //How one configuration did
+  public static class Result {
+    final Configuration configuration;
+    int questions;
+    int correct;         //Right response ranked first
+    int inTop10;         //Right response anywhere in the top 10
+    int rightInTop10;    //Right responses in the top 10, summed over the questions
+    double reciprocalRanks;
+    final long[] latencies;
+
+    Result(Configuration configuration, int questions){
+      this.configuration = configuration;
+      this.latencies = new long[questions];
+    }
+
+    public double precisionAt1(){
+      return questions == 0 ? 0.0 : (double) correct / questions;
+    }
+
+    public double precisionAt10(){
+      return questions == 0 ? 0.0 : (double) rightInTop10 / (BatchSearcher.hitsPerPage * questions);
+    }
+
+    public double hitsAt10(){
+      return questions == 0 ? 0.0 : (double) inTop10 / questions;
+    }
+
+    public double meanReciprocalRank(){
+      return questions == 0 ? 0.0 : reciprocalRanks / questions;
+    }
+
+    //Nearest rank percentile of the search times, in milliseconds
+    public double latencyMillis(double quantile){
+      if (latencies.length == 0)
+        return 0.0;
+      long[] sorted = latencies.clone();
+      Arrays.sort(sorted);
+      int rank = (int) Math.ceil(quantile * sorted.length);
+      return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)] / 1e6;
+    }
+  }
+
+  IndexReader index;
+  ExecutorService pool;
+  Reranker reranker;
+  int workers;
+
+  //reranker is shared by every configuration that reranks, and may be null if none of them do
+  public ConfigurationSweep(IndexReader index, ExecutorService pool, Reranker reranker, int workers){
+    this.index = index;
+    this.pool = pool;
+    this.reranker = reranker;
+    this.workers = workers;
+  }
+
+  //Every combination of the grid's values, see the class comment for the syntax.
+  //Settings are separated by ';' or white space.
+  public static List<Configuration> parseGrid(String grid){
+    Map<String, String[]> values = new LinkedHashMap<String, String[]>();
+    values.put("similarity", new String[]{"bm25"});
+    values.put("categories", new String[]{"yes"});
+    values.put("rerank", new String[]{"0"});
+    values.put("wand", new String[]{"no"});
+    for (String setting : grid.trim().split("[;\\s]+")){
+      if (setting.isEmpty())
+        continue;
+      String[] keyValues = setting.split("=", 2);
+      if (keyValues.length != 2 || !values.containsKey(keyValues[0]) || keyValues[1].isEmpty())
+        throw new IllegalArgumentException("Can't read '" + setting + "', expected one of " + values.keySet() + " as name=value,value");
+      values.put(keyValues[0], keyValues[1].split(","));
+    }
+
+    List<Configuration> configurations = new ArrayList<Configuration>();
+    for (String similarity : values.get("similarity")){
+      for (String categories : values.get("categories")){
+        for (String rerank : values.get("rerank")){
+          for (String wand : values.get("wand")){
+            int depth;
+            try {
+              depth = Integer.parseInt(rerank);
+            } catch (NumberFormatException e) {
+              throw new IllegalArgumentException("rerank expects a number, but got '" + rerank + "'.");
+            }
+            configurations.add(new Configuration(similarity, yesOrNo("categories", categories), depth, yesOrNo("wand", wand)));
+          }
+        }
+      }
+    }
+    return configurations;
+  }
+
+  private static boolean yesOrNo(String setting, String value){
+    if (value.equals("yes"))
+      return true;
+    if (value.equals("no"))
+      return false;
+    throw new IllegalArgumentException(setting + " expects yes or no, but got '" + value + "'.");
+  }
+
+  //questionKey maps every query (clue and category, as loadInQuestionKey gives it) to its right
+  //responses, categories maps it to its category alone.
+  public List<Result> evaluate(List<Configuration> configurations, HashMap<String, ArrayList<String>> questionKey,
+                               HashMap<String, String> categories) throws IOException {
+    ArrayList<String> queries = new ArrayList<String>(questionKey.keySet());
+    //Lemmenize every text any configuration needs, once
+    ArrayList<String> texts = new ArrayList<String>();
+    for (String query : queries){
+      texts.add(query);
+      texts.add(clueOf(query, categories.getOrDefault(query, "")));
+      texts.add(categories.getOrDefault(query, ""));
+    }
+    HashMap<String, String> lemmenized = TextLemmenizer.lemmenizeQueries(texts, workers, NormalizationProfile.of(index));
+
+    BatchSearcher[] searchers = new BatchSearcher[configurations.size()];
+    List<Result> results = new ArrayList<Result>();
+    for (int c = 0; c < searchers.length; c++){
+      Configuration configuration = configurations.get(c);
+      searchers[c] = new BatchSearcher(index, pool, null);
+      searchers[c].getSearcher().setSimilarity(configuration.newSimilarity());
+      if (configuration.wand)
+        searchers[c].setTotalHitsThreshold(BatchSearcher.hitsPerPage);
+      if (configuration.rerankDepth > 0){
+        if (reranker == null)
+          throw new IllegalArgumentException("A reranker is needed for " + configuration);
+        searchers[c].setReranker(reranker, configuration.rerankDepth);
+      }
+      results.add(new Result(configuration, queries.size()));
+    }
+
+    //Question by question, so every configuration sees the same conditions
+    List<List<Future<ArrayList<ScoredDocument>>>> pending = new ArrayList<List<Future<ArrayList<ScoredDocument>>>>();
+    for (int c = 0; c < searchers.length; c++){
+      pending.add(new ArrayList<Future<ArrayList<ScoredDocument>>>());
+    }
+    for (int q = 0; q < queries.size(); q++){
+      String query = queries.get(q);
+      String category = categories.getOrDefault(query, "");
+      for (int c = 0; c < searchers.length; c++){
+        Configuration configuration = configurations.get(c);
+        BatchSearcher searcher = searchers[c];
+        Result result = results.get(c);
+        int slot = q;
+        String lemmenizedQuery = lemmenized.get(configuration.categories ? query : clueOf(query, category));
+        String lemmenizedCategory = configuration.categories ? lemmenized.get(category) : "";
+        pending.get(c).add(pool.submit(() -> {
+          long start = System.nanoTime();
+          ArrayList<ScoredDocument> documents = searcher.search(lemmenizedQuery, lemmenizedCategory);
+          result.latencies[slot] = System.nanoTime() - start;
+          return documents;
+        }));
+      }
+    }
+
+    for (int c = 0; c < searchers.length; c++){
+      Result result = results.get(c);
+      for (int q = 0; q < queries.size(); q++){
+        ArrayList<ScoredDocument> documents = new ArrayList<ScoredDocument>();
+        try {
+          documents = pending.get(c).get(q).get();
+        } catch (ExecutionException e) {
+          System.err.println(e.getCause().getMessage());
+          System.err.println("Error scoring the query '" + queries.get(q) + "' with " + result.configuration + ", counting it as wrong.");
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("The sweep was interrupted", e);
+        }
+        result.questions++;
+        ArrayList<String> responses = questionKey.get(queries.get(q));
+        boolean found = false;
+        for (int rank = 0; rank < Math.min(documents.size(), BatchSearcher.hitsPerPage); rank++){
+          if (!WatsonMinch.isCorrectQuestion(documents.get(rank).getDocumentID(), responses))
+            continue;
+          result.rightInTop10++;
+          if (found)
+            continue; //The rest only count towards P@10
+          found = true;
+          if (rank == 0)
+            result.correct++;
+          result.inTop10++;
+          result.reciprocalRanks += 1.0 / (rank + 1);
+        }
+      }
+    }
+    return results;
+  }
+
+  //The clue without the category loadInQuestionKey appended to it
+  static String clueOf(String query, String category){
+    if (!category.isEmpty() && query.endsWith(" " + category))
+      return query.substring(0, query.length() - category.length() - 1);
+    return query;
+  }
+
+  //One row per configuration
+  public static String toTable(List<Result> results){
+    int width = "Configuration".length();
+    for (Result result : results){
+      width = Math.max(width, result.configuration.toString().length());
+    }
+    StringBuilder table = new StringBuilder();
+    String row = "%-" + width + "s %6s %6s %7s %6s %8s %8s %8s%n";
+    table.append(String.format(row, "Configuration", "P@1", "P@10", "Hit@10", "MRR", "p50 ms", "p90 ms", "p99 ms"));
+    for (Result result : results){
+      table.append(String.format(row, result.configuration,
+                                 String.format("%.3f", result.precisionAt1()),
+                                 String.format("%.3f", result.precisionAt10()),
+                                 String.format("%.3f", result.hitsAt10()),
+                                 String.format("%.3f", result.meanReciprocalRank()),
+                                 String.format("%.2f", result.latencyMillis(0.50)),
+                                 String.format("%.2f", result.latencyMillis(0.90)),
+                                 String.format("%.2f", result.latencyMillis(0.99))));
+    }
+    return table.toString();
+  }
+
+}
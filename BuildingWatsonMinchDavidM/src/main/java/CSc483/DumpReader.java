@@ -0,0 +1,264 @@
+package CSc483;
+
+/**
+ * DumpReader class
+ * Reads a Wikipedia dump file line by line straight from memory mapped windows of the file,
+ * replacing java.util.Scanner, whose regex based nextLine() is slow on multi-GB files.
+ * Lines are split on '\n' in the mapped bytes and trimmed by byte position. [[Title]] lines are
+ * recognized on the bytes too (same rules as WikipediaParser.isTitle), so only titles become
+ * Strings; body lines are decoded from UTF-8 into one reused CharBuffer that is only valid until
+ * the next call to nextLine().
+ * Compressed dumps (.gz, or .bz2 including multistream bz2, see MultistreamBzip2InputStream) and
+ * dumps piped in on standard input are read the same way, through one reused buffer instead of
+ * mapped windows (see open()).
+ *
+ * USAGE:
+ * DumpReader reader = DumpReader.open(path);
+ * while (reader.nextLine()) {
+ *   if (reader.isTitle()) ... reader.getTitle() ... else ... reader.getLine() ...
+ * }
+ * reader.close();
+ */
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+public class DumpReader implements Closeable {
+
+  //How much of the file is mapped at a time. A line crossing two windows is copied once.
+  public static final int WINDOW_SIZE = 64 << 20;
+  //How much of a stream is read at a time
+  public static final int STREAM_BUFFER_SIZE = 1 << 20;
+
+  private final FileChannel channel;
+  private final InputStream in;  //instead of the channel, for a stream
+  private final long fileSize;
+  private final int windowSize;
+  private long windowPosition;  //file offset of the current window
+  private ByteBuffer window;
+  private int windowOffset;     //where the next line starts in the window
+
+  private ByteBuffer carry = ByteBuffer.allocate(4096); //a line split across windows
+  private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private CharBuffer line = CharBuffer.allocate(4096);
+  private String title;
+  private long bytesRead;
+
+  public DumpReader(Path file) throws IOException {
+    this(file, WINDOW_SIZE);
+  }
+
+  public DumpReader(Path file, int windowSize) throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.READ);
+    this.in = null;
+    this.fileSize = channel.size();
+    this.windowSize = windowSize;
+    this.windowPosition = 0;
+    this.window = null;
+  }
+
+  //Reads the (already decompressed) dump in, which is closed with this reader
+  public DumpReader(InputStream in){
+    this.channel = null;
+    this.in = in;
+    this.fileSize = -1;
+    this.windowSize = STREAM_BUFFER_SIZE;
+    this.window = null;
+  }
+
+  //Opens a dump file, which is decompressed as it's read if its name ends in .gz or .bz2
+  public static DumpReader open(Path file) throws IOException {
+    String name = file.getFileName().toString();
+    if (name.endsWith(".gz"))
+      return new DumpReader(new GZIPInputStream(Files.newInputStream(file), 1 << 16));
+    if (name.endsWith(".bz2"))
+      return new DumpReader(new MultistreamBzip2InputStream(Files.newInputStream(file)));
+    return new DumpReader(file);
+  }
+
+  //Reads a dump from a stream (e.g. System.in), telling gzip and bzip2 apart from plain text by
+  //their first bytes
+  public static DumpReader open(InputStream stream) throws IOException {
+    BufferedInputStream in = new BufferedInputStream(stream, 1 << 16);
+    in.mark(3);
+    int first = in.read();
+    int second = in.read();
+    int third = in.read();
+    in.reset();
+    if (first == 0x1f && second == 0x8b)
+      return new DumpReader(new GZIPInputStream(in, 1 << 16));
+    if (first == 'B' && second == 'Z' && third == 'h')
+      return new DumpReader(new MultistreamBzip2InputStream(in));
+    return new DumpReader(in);
+  }
+
+  //Moves to the next line. Returns false at the end of the file.
+  public boolean nextLine() throws IOException {
+    carry.clear();
+    while (true){
+      if (window == null || windowOffset == window.limit()){
+        if (!nextWindow()){
+          if (carry.position() == 0)
+            return false;
+          carry.flip();
+          readLine(carry, 0, carry.limit()); //the file didn't end with a newline
+          return true;
+        }
+      }
+      int end = windowOffset;
+      int limit = window.limit();
+      while (end < limit && window.get(end) != '\n'){
+        end++;
+      }
+      if (end < limit){
+        int start = windowOffset;
+        windowOffset = end + 1;
+        bytesRead += end + 1 - start;
+        if (carry.position() == 0){
+          readLine(window, start, end);
+        } else {
+          appendToCarry(start, end);
+          carry.flip();
+          readLine(carry, 0, carry.limit());
+        }
+        return true;
+      }
+      //The line goes on in the next window
+      bytesRead += limit - windowOffset;
+      appendToCarry(windowOffset, limit);
+      windowOffset = limit;
+    }
+  }
+
+  private boolean nextWindow() throws IOException {
+    if (in != null)
+      return nextBuffer();
+    if (window != null)
+      windowPosition += window.limit();
+    if (windowPosition >= fileSize)
+      return false;
+    long size = Math.min(windowSize, fileSize - windowPosition);
+    window = channel.map(FileChannel.MapMode.READ_ONLY, windowPosition, size);
+    windowOffset = 0;
+    return true;
+  }
+
+  //Refills the one buffer of a stream. The lines of the last buffer have all been used (or carried) by now.
+  private boolean nextBuffer() throws IOException {
+    if (window == null)
+      window = ByteBuffer.allocate(windowSize);
+    byte[] buffer = window.array();
+    int filled = 0;
+    while (filled < buffer.length){
+      int read = in.read(buffer, filled, buffer.length - filled);
+      if (read < 0)
+        break;
+      filled += read;
+    }
+    window.clear();
+    window.limit(filled);
+    windowOffset = 0;
+    return filled > 0;
+  }
+
+  private void appendToCarry(int start, int end){
+    int length = end - start;
+    if (carry.remaining() < length){
+      ByteBuffer bigger = ByteBuffer.allocate(Math.max(carry.capacity() * 2, carry.position() + length));
+      carry.flip();
+      bigger.put(carry);
+      carry = bigger;
+    }
+    for (int i = start; i < end; i++){
+      carry.put(window.get(i));
+    }
+  }
+
+  //Trims the line in bytes[start, end), then either keeps it as the title or decodes it
+  private void readLine(ByteBuffer bytes, int start, int end){
+    while (start < end && (bytes.get(start) & 0xff) <= ' '){
+      start++;
+    }
+    while (end > start && (bytes.get(end - 1) & 0xff) <= ' '){
+      end--;
+    }
+    title = null;
+    line.clear();
+    if (isTitle(bytes, start, end)){
+      title = decode(bytes, start + 2, end - 2).toString(); // Lop off brackets
+    } else {
+      decode(bytes, start, end);
+    }
+  }
+
+  private CharBuffer decode(ByteBuffer bytes, int start, int end){
+    ByteBuffer in = bytes.duplicate();
+    in.limit(end);
+    in.position(start);
+    if (line.capacity() < end - start){
+      line = CharBuffer.allocate(end - start); //UTF-8 never has more chars than bytes
+    }
+    line.clear();
+    decoder.reset();
+    decoder.decode(in, line, true);
+    decoder.flush(line);
+    line.flip();
+    return line;
+  }
+
+  //Same rules as WikipediaParser.isTitle(): [[ ... ]] with no | anywhere on the line
+  static boolean isTitle(ByteBuffer bytes, int start, int end){
+    if (end - start < 4)
+      return false;
+    if (bytes.get(start) != '[' || bytes.get(start + 1) != '[' || bytes.get(end - 2) != ']' || bytes.get(end - 1) != ']')
+      return false;
+    for (int i = start; i < end; i++){
+      if (bytes.get(i) == '|')
+        return false;
+    }
+    return true;
+  }
+
+  public boolean isTitle(){
+    return title != null;
+  }
+
+  //The current title with its brackets removed, or null if the line isn't a title
+  public String getTitle(){
+    return title;
+  }
+
+  //The current (trimmed) body line. Only valid until the next call to nextLine().
+  public CharSequence getLine(){
+    return line;
+  }
+
+  public long getBytesRead(){
+    return bytesRead;
+  }
+
+  @Override
+  public void close() throws IOException {
+    window = null;
+    if (channel != null)
+      channel.close();
+    if (in != null)
+      in.close();
+  }
+
+}
@@ -0,0 +1,40 @@
+package CSc483;
+
+/**
+ * FastAnalyzer class
+ * The analyzer behind the FAST normalization profile. It skips CoreNLP altogether: Lucene's
+ * StandardTokenizer splits the text (and drops punctuation), possessive 's is dropped, terms are
+ * lowercased, stop words are removed and what's left is Porter stemmed in place by a StemmerFilter
+ * (if TextLemmenizer.STEM). The filter is always in the chain and checks STEM for every text, since
+ * the profile's one analyzer keeps its components per thread.
+ * Without part of speech tagging there are no lemmas, and stop words are always removed, even
+ * from short queries, since the tokenizer never sees the whole text at once.
+ */
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.StopFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.en.EnglishPossessiveFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+
+import java.util.Arrays;
+
+public class FastAnalyzer extends Analyzer {
+
+  private static final CharArraySet stopWords = CharArraySet.unmodifiableSet(
+      new CharArraySet(Arrays.asList(TextLemmenizer.STOPWORDS), false));
+
+  @Override
+  protected TokenStreamComponents createComponents(String fieldName){
+    Tokenizer tokenizer = new StandardTokenizer();
+    TokenStream stream = new EnglishPossessiveFilter(tokenizer);
+    stream = new LowerCaseFilter(stream);
+    stream = new StopFilter(stream, stopWords);
+    stream = new StemmerFilter(stream, () -> TextLemmenizer.STEM);
+    return new TokenStreamComponents(tokenizer, stream);
+  }
+
+}
@@ -0,0 +1,225 @@
+package CSc483;
+
+/**
+ * FeatureReranker class
+ * A Reranker that adds three features of each candidate to its BM25 score:
+ * 1) Category overlap: the share of the category's terms that are in the article.
+ * 2) Title overlap: the share of the title's terms that are in the clue. A Jeopardy clue almost
+ *    never names its own response, so this one counts against the candidate by default.
+ * 3) Proximity: how tightly the clue's terms sit together in the article, the number of clue terms
+ *    the article has over the length of the shortest stretch of it that holds all of them.
+ * Every feature is between 0 and 1, and so is the BM25 score once it's divided by the best
+ * candidate's, so the weights don't depend on how long the clue is.
+ * The features are read from the index's postings (the article text isn't stored), one candidate
+ * per task on a shared pool. The whole rerank has a strict time budget: if any candidate isn't
+ * done in time, the ones that haven't started are cancelled and null is returned, so the BM25 order
+ * is kept. Running tasks aren't interrupted, since an interrupt closes the NIO channel they read
+ * the index through; a task that starts after the deadline returns at once instead.
+ * Titles are lemmenized with the profile of the index the candidates came from.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+public class FeatureReranker implements Reranker {
+
+  public static final int DEFAULT_DEPTH = 50;       //BM25 candidates handed to the reranker
+  public static final int DEFAULT_BUDGET_MS = 50;   //Time allowed to rerank one query
+
+  public static double CATEGORY_WEIGHT = 0.5;
+  public static double TITLE_WEIGHT = -0.5;
+  public static double PROXIMITY_WEIGHT = 0.3;
+
+  ExecutorService pool;
+  long budgetNanos;
+  //Settings, profile and title -> the title's lemmenized terms, titles come back for query after query
+  QueryCache<String> titleCache = new QueryCache<String>("Title cache");
+
+  private static final Metrics.Timer rerankTimer = Metrics.timer("watson_rerank_seconds",
+      "Time to rerank one query's candidates");
+  private static final Metrics.Counter overBudget = Metrics.counter("watson_rerank_over_budget_total",
+      "Queries whose rerank ran out of time and kept the BM25 order");
+
+  public FeatureReranker(ExecutorService pool, long budgetMillis){
+    this.pool = pool;
+    this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+  }
+
+  //Uses a pool of daemon threads, one per core
+  public FeatureReranker(long budgetMillis){
+    this(BatchSearcher.newPool("watson-rerank"), budgetMillis);
+  }
+
+  @Override
+  public ArrayList<ScoredDocument> rerank(IndexReader index, NormalizationProfile profile, String lemmenizedQuery,
+                                          String lemmenizedCategory, ArrayList<ScoredDocument> candidates){
+    if (candidates.isEmpty())
+      return candidates;
+    long start = System.nanoTime();
+    long deadline = start + budgetNanos;
+    String[] queryTerms = terms(lemmenizedQuery);
+    String[] categoryTerms = terms(lemmenizedCategory);
+    double bestScore = candidates.get(0).getScore();
+
+    List<Future<ScoredDocument>> pending = new ArrayList<Future<ScoredDocument>>();
+    for (ScoredDocument candidate : candidates){
+      pending.add(pool.submit(() -> {
+        if (System.nanoTime() - deadline > 0)
+          return null; //Too late to be used, don't read the index for nothing
+        double[] features = features(index, profile, candidate, queryTerms, categoryTerms);
+        double score = (bestScore > 0 ? candidate.getScore() / bestScore : 0)
+                       + CATEGORY_WEIGHT * features[0] + TITLE_WEIGHT * features[1] + PROXIMITY_WEIGHT * features[2];
+        return new ScoredDocument(candidate.getDocumentID(), score, candidate.getDocId());
+      }));
+    }
+
+    ArrayList<ScoredDocument> reranked = new ArrayList<ScoredDocument>(candidates.size());
+    try {
+      for (Future<ScoredDocument> result : pending){
+        ScoredDocument document = result.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (document == null)
+          throw new TimeoutException(); //The task started after the deadline
+        reranked.add(document);
+      }
+    } catch (TimeoutException | CancellationException e) {
+      overBudget.add(1);
+      reranked = null;
+    } catch (ExecutionException e) {
+      System.err.println(e.getCause().getMessage());
+      System.err.println("Error reranking the query '" + lemmenizedQuery + "', keeping the BM25 order.");
+      reranked = null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      reranked = null;
+    }
+    for (Future<ScoredDocument> result : pending){
+      result.cancel(false);
+    }
+    if (reranked != null)
+      Collections.sort(reranked);
+    rerankTimer.record(System.nanoTime() - start);
+    return reranked;
+  }
+
+  //Category overlap, title overlap and proximity of one candidate
+  double[] features(IndexReader index, NormalizationProfile profile, ScoredDocument candidate, String[] queryTerms,
+                    String[] categoryTerms) throws IOException {
+    double[] features = new double[3];
+    features[1] = titleOverlap(candidate.getDocumentID(), profile, queryTerms);
+    if (candidate.getDocId() < 0)
+      return features;
+    List<LeafReaderContext> leaves = index.leaves();
+    LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(candidate.getDocId(), leaves));
+    int doc = candidate.getDocId() - leaf.docBase;
+    Terms text = leaf.reader().terms("text");
+    if (text == null)
+      return features;
+    TermsEnum termsEnum = text.iterator();
+    PostingsEnum postings = null;
+
+    if (categoryTerms.length > 0){
+      int found = 0;
+      for (String term : categoryTerms){
+        if (termsEnum.seekExact(new BytesRef(term))){
+          postings = termsEnum.postings(postings, PostingsEnum.NONE);
+          if (postings.advance(doc) == doc)
+            found++;
+        }
+      }
+      features[0] = (double) found / categoryTerms.length;
+    }
+
+    //Every position of every clue term in the article, as {position, term}
+    List<int[]> positions = new ArrayList<int[]>();
+    for (int term = 0; term < queryTerms.length; term++){
+      if (termsEnum.seekExact(new BytesRef(queryTerms[term]))){
+        postings = termsEnum.postings(postings, PostingsEnum.POSITIONS);
+        if (postings.advance(doc) == doc){
+          for (int i = postings.freq(); i > 0; i--){
+            positions.add(new int[]{postings.nextPosition(), term});
+          }
+        }
+      }
+    }
+    features[2] = proximity(positions, queryTerms.length);
+    return features;
+  }
+
+  //Matched terms over the length of the shortest window that holds every matched term, 0 if fewer than 2 match
+  static double proximity(List<int[]> positions, int termCount){
+    Collections.sort(positions, (a, b) -> Integer.compare(a[0], b[0]));
+    int[] inWindow = new int[termCount];
+    int matched = 0;
+    for (int[] position : positions){
+      if (inWindow[position[1]]++ == 0)
+        matched++;
+    }
+    if (matched < 2)
+      return 0.0;
+
+    Arrays.fill(inWindow, 0);
+    int covered = 0;
+    int shortest = Integer.MAX_VALUE;
+    int left = 0;
+    for (int right = 0; right < positions.size(); right++){
+      if (inWindow[positions.get(right)[1]]++ == 0)
+        covered++;
+      while (covered == matched){
+        int[] first = positions.get(left);
+        shortest = Math.min(shortest, positions.get(right)[0] - first[0] + 1);
+        if (--inWindow[first[1]] == 0)
+          covered--;
+        left++;
+      }
+    }
+    return (double) matched / shortest;
+  }
+
+  //The share of the title's terms that are also clue terms. The title is lemmenized the way the clue was.
+  double titleOverlap(String title, NormalizationProfile profile, String[] queryTerms){
+    String key = TextLemmenizer.settingsKey() + profile.name() + '\t' + title;
+    String lemmenizedTitle = titleCache.get(key);
+    if (lemmenizedTitle == null){
+      long start = System.nanoTime();
+      lemmenizedTitle = TextLemmenizer.lemmenizeText(title, profile.getAnalyzer());
+      titleCache.put(key, lemmenizedTitle, System.nanoTime() - start);
+    }
+    String[] titleTerms = terms(lemmenizedTitle);
+    if (titleTerms.length == 0)
+      return 0.0;
+    List<String> clue = Arrays.asList(queryTerms);
+    int found = 0;
+    for (String term : titleTerms){
+      if (clue.contains(term))
+        found++;
+    }
+    return (double) found / titleTerms.length;
+  }
+
+  //The distinct terms of lemmenized text
+  static String[] terms(String lemmenized){
+    if (lemmenized == null || lemmenized.trim().isEmpty())
+      return new String[0];
+    return new LinkedHashSet<String>(Arrays.asList(lemmenized.trim().split(" +"))).toArray(new String[0]);
+  }
+
+}
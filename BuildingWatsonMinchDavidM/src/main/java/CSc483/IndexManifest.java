@@ -0,0 +1,185 @@
+package CSc483;
+
+/**
+ * IndexManifest class
+ * Records which Wikipedia dump files are already in a Lucene index, so parsing can skip them.
+ * The manifest is a small tab separated text file kept in the index directory, one line per
+ * dump file: name, size in bytes, last modified time and SHA-256 of the contents.
+ * A file is unchanged if its size matches and either its modified time or its hash matches, so
+ * the (slow) hash of a multi-GB file is only computed when the cheap checks can't decide.
+ * A file that is no longer in the dump directory (deleted or renamed) has its documents deleted
+ * from the index by the next parse, and is then removed from the manifest.
+ * save() writes a temporary file and renames it over the old manifest, so an interrupted run
+ * always leaves the manifest of the last completed file behind.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class IndexManifest {
+
+  public static final String fileName = "watson-manifest.tsv";
+
+  //One indexed dump file
+  public static class Entry {
+    final String name;
+    final long size;
+    final long modified;
+    final String hash;
+
+    Entry(String name, long size, long modified, String hash){
+      this.name = name;
+      this.size = size;
+      this.modified = modified;
+      this.hash = hash;
+    }
+
+    public String getName(){
+      return this.name;
+    }
+
+    public String getHash(){
+      return this.hash;
+    }
+  }
+
+  private final Path path;
+  private final TreeMap<String, Entry> entries = new TreeMap<String, Entry>();
+
+  //Reads the manifest of the index in indexDir, or starts an empty one if there is none yet
+  public IndexManifest(Path indexDir) throws IOException {
+    this.path = indexDir.resolve(fileName);
+    if (!Files.exists(path))
+      return;
+    BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+    try {
+      String line;
+      while ((line = reader.readLine()) != null){
+        String[] fields = line.split("\t");
+        if (fields.length != 4){
+          System.err.println("Warning: Ignoring malformed line in " + path + ": " + line);
+          continue;
+        }
+        try {
+          entries.put(fields[0], new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]));
+        } catch (NumberFormatException e) {
+          System.err.println("Warning: Ignoring malformed line in " + path + ": " + line);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  //Returns the entry for file if it has been indexed exactly as it is now, otherwise null.
+  //A file whose contents match but whose modified time changed gets its entry refreshed.
+  public Entry getUnchanged(Path file) throws IOException {
+    Entry entry = get(file.getFileName().toString());
+    if (entry == null)
+      return null;
+    long size = Files.size(file);
+    if (entry.size != size)
+      return null;
+    long modified = Files.getLastModifiedTime(file).toMillis();
+    if (entry.modified == modified)
+      return entry;
+    String hash = hash(file);
+    if (!entry.hash.equals(hash))
+      return null;
+    entry = new Entry(entry.name, size, modified, hash);
+    put(entry);
+    return entry;
+  }
+
+  public synchronized Entry get(String name){
+    return entries.get(name);
+  }
+
+  //Builds the entry for file as it is now
+  public static Entry describe(Path file) throws IOException {
+    return new Entry(file.getFileName().toString(), Files.size(file),
+                     Files.getLastModifiedTime(file).toMillis(), hash(file));
+  }
+
+  public synchronized void put(Entry entry){
+    entries.put(entry.name, entry);
+  }
+
+  public synchronized void remove(String name){
+    entries.remove(name);
+  }
+
+  //The names of every file in the manifest, in order
+  public synchronized List<String> getNames(){
+    return new ArrayList<String>(entries.keySet());
+  }
+
+  public synchronized int size(){
+    return entries.size();
+  }
+
+  public synchronized void clear(){
+    entries.clear();
+  }
+
+  //Writes the manifest next to the index, replacing the old one in a single rename
+  public synchronized void save() throws IOException {
+    Path temp = path.resolveSibling(fileName + ".tmp");
+    BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8);
+    try {
+      for (Map.Entry<String, Entry> e : entries.entrySet()){
+        Entry entry = e.getValue();
+        writer.write(entry.name + "\t" + entry.size + "\t" + entry.modified + "\t" + entry.hash);
+        writer.newLine();
+      }
+    } finally {
+      writer.close();
+    }
+    try {
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  //SHA-256 of the file contents, as hex
+  public static String hash(Path file) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e); //Every Java platform has to provide SHA-256
+    }
+    byte[] buffer = new byte[1 << 16];
+    InputStream in = Files.newInputStream(file);
+    try {
+      int read;
+      while ((read = in.read(buffer)) != -1){
+        digest.update(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()){
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+
+}
@@ -0,0 +1,133 @@
+package CSc483;
+
+/**
+ * LemmenizingTokenizer class
+ * A Lucene Tokenizer that turns text straight into Watson's normalized terms. The input is read
+ * one line at a time; each line is tokenized and part of speech tagged by the shared CoreNLP
+ * pipeline, and every token is lemmenized and/or stemmed by TextLemmenizer.normalizeToken().
+ * Punctuation is dropped and stop words are removed with the same rules TextLemmenizer has always
+ * used, line by line. No intermediate String of the normalized text is ever built.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.util.CoreMap;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+
+public final class LemmenizingTokenizer extends Tokenizer {
+
+  private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
+  private final OffsetAttribute offsetAttribute = addAttribute(OffsetAttribute.class);
+
+  private BufferedReader lines;
+  private int lineOffset;   //offset of the current line in the whole input
+  private int nextOffset;   //offset of the line after it
+
+  //The kept tokens of the current line and their offsets in that line, reused from line to line
+  private final ArrayList<String> lineTerms = new ArrayList<String>();
+  private final ArrayList<String> terms = new ArrayList<String>();
+  private int[] lineStarts = new int[64];
+  private int[] lineEnds = new int[64];
+  private int[] starts = new int[64];
+  private int[] ends = new int[64];
+  private int next;
+
+  @Override
+  public boolean incrementToken() throws IOException {
+    clearAttributes();
+    while (next >= terms.size()){
+      if (!readLine())
+        return false;
+    }
+    termAttribute.setEmpty().append(terms.get(next));
+    offsetAttribute.setOffset(correctOffset(lineOffset + starts[next]), correctOffset(lineOffset + ends[next]));
+    next++;
+    return true;
+  }
+
+  //Normalizes the next line of input. Returns false once the input is used up.
+  private boolean readLine() throws IOException {
+    String line = lines.readLine();
+    if (line == null)
+      return false;
+    lineOffset = nextOffset;
+    nextOffset += line.length() + 1;
+    terms.clear();
+    lineTerms.clear();
+    next = 0;
+    if (line.trim().isEmpty())
+      return true;
+
+    Annotation document = new Annotation(line);
+    TextLemmenizer.getPipeline().annotate(document);
+    List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+    for (CoreMap sentence : sentences) {
+      for (CoreLabel token : sentence.get(CoreAnnotations.TokensAnnotation.class)) {
+        String normalized = TextLemmenizer.normalizeToken(token.word(), token.tag());
+        // Only use this token if it's not punctuation
+        if (!normalized.isEmpty()){
+          int i = lineTerms.size();
+          if (i == lineStarts.length){
+            lineStarts = Arrays.copyOf(lineStarts, i * 2);
+            lineEnds = Arrays.copyOf(lineEnds, i * 2);
+            starts = Arrays.copyOf(starts, i * 2);
+            ends = Arrays.copyOf(ends, i * 2);
+          }
+          lineTerms.add(normalized);
+          lineStarts[i] = token.beginPosition();
+          lineEnds[i] = token.endPosition();
+        }
+      }
+    }
+
+    int stopWordCount = 0;
+    for (int i = 0; i < lineTerms.size(); i++){
+      if (TextLemmenizer.isRemovableStopWord(lineTerms.get(i), lineTerms.size(), stopWordCount)){
+        stopWordCount++;
+        continue;
+      }
+      starts[terms.size()] = lineStarts[i];
+      ends[terms.size()] = lineEnds[i];
+      terms.add(lineTerms.get(i));
+    }
+    return true;
+  }
+
+  @Override
+  public void reset() throws IOException {
+    super.reset();
+    lines = new BufferedReader(input);
+    lineOffset = 0;
+    nextOffset = 0;
+    terms.clear();
+    lineTerms.clear();
+    next = 0;
+  }
+
+  @Override
+  public void end() throws IOException {
+    super.end();
+    int finalOffset = correctOffset(Math.max(0, nextOffset - 1));
+    offsetAttribute.setOffset(finalOffset, finalOffset);
+  }
+
+  @Override
+  public void close() throws IOException {
+    super.close();
+    lines = null;
+    terms.clear();
+    lineTerms.clear();
+  }
+
+}
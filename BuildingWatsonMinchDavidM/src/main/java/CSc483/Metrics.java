@@ -0,0 +1,217 @@
+package CSc483;
+
+/**
+ * Metrics class
+ * A small process wide registry of timers, counters and gauges, so the time spent in every stage
+ * of Watson (model load, query lemmenizing, query building, searching, title lookups,
+ * evaluation, parsing) can be seen and compared under real load.
+ * A Timer is a histogram: every recorded duration lands in one of a fixed set of buckets from
+ * 50 microseconds to 10 seconds, and the count, sum and maximum are kept as well. Everything is
+ * updated with LongAdders, so recording from many threads at once costs next to nothing.
+ * The registry can be exported as JSON or in the Prometheus text format, either to a file at the
+ * end of a run (see write()) or from the server's /metrics endpoint.
+ *
+ * USAGE:
+ * long start = System.nanoTime();
+ * ... work ...
+ * Metrics.timer("watson_search_seconds", "Time to search the index").record(System.nanoTime() - start);
+ * Metrics.counter("watson_documents_indexed_total", "Documents added to the index").add(1);
+ */
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class Metrics {
+
+  //Upper bounds of the timer buckets, in seconds
+  static final double[] BUCKETS = {0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01,
+                                   0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+  private static final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+  private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+  private static final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+  public static Timer timer(String name, String help){
+    return timers.computeIfAbsent(name, key -> new Timer(help));
+  }
+
+  public static Counter counter(String name, String help){
+    return counters.computeIfAbsent(name, key -> new Counter(help));
+  }
+
+  public static Gauge gauge(String name, String help){
+    return gauges.computeIfAbsent(name, key -> new Gauge(help));
+  }
+
+  //A histogram of durations
+  public static class Timer {
+    final String help;
+    final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1]; //the last one is +Inf
+    final LongAdder count = new LongAdder();
+    final LongAdder sumNanos = new LongAdder();
+    final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    Timer(String help){
+      this.help = help;
+      for (int i = 0; i < buckets.length; i++){
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    public void record(long nanos){
+      double seconds = nanos / 1e9;
+      int bucket = 0;
+      while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]){
+        bucket++;
+      }
+      buckets[bucket].increment();
+      count.increment();
+      sumNanos.add(nanos);
+      maxNanos.accumulate(nanos);
+    }
+
+    public long getCount(){
+      return count.sum();
+    }
+
+    public double getSumSeconds(){
+      return sumNanos.sum() / 1e9;
+    }
+
+    public double getMaxSeconds(){
+      return maxNanos.get() / 1e9;
+    }
+
+    //The upper bound of the bucket the given quantile (0-1) falls in
+    public double getQuantileSeconds(double quantile){
+      long total = getCount();
+      if (total == 0)
+        return 0.0;
+      long rank = (long) Math.ceil(quantile * total);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS.length; i++){
+        seen += buckets[i].sum();
+        if (seen >= rank)
+          return BUCKETS[i];
+      }
+      return getMaxSeconds();
+    }
+  }
+
+  public static class Counter {
+    final String help;
+    final LongAdder value = new LongAdder();
+
+    Counter(String help){
+      this.help = help;
+    }
+
+    public void add(long amount){
+      value.add(amount);
+    }
+
+    public long get(){
+      return value.sum();
+    }
+  }
+
+  //A value that is set rather than added to, e.g. a rate
+  public static class Gauge {
+    final String help;
+    volatile double value;
+
+    Gauge(String help){
+      this.help = help;
+    }
+
+    public void set(double value){
+      this.value = value;
+    }
+
+    public double get(){
+      return this.value;
+    }
+  }
+
+  public static String toJson(){
+    StringBuilder json = new StringBuilder("{\"timers\":{");
+    boolean first = true;
+    for (Map.Entry<String, Timer> entry : new TreeMap<String, Timer>(timers).entrySet()){
+      Timer timer = entry.getValue();
+      json.append(first ? "" : ",").append(ScoredDocument.jsonString(entry.getKey()));
+      json.append(":{\"count\":").append(timer.getCount());
+      json.append(",\"sumSeconds\":").append(timer.getSumSeconds());
+      json.append(",\"maxSeconds\":").append(timer.getMaxSeconds());
+      json.append(",\"p50Seconds\":").append(timer.getQuantileSeconds(0.5));
+      json.append(",\"p99Seconds\":").append(timer.getQuantileSeconds(0.99));
+      json.append(",\"buckets\":{");
+      for (int i = 0; i <= BUCKETS.length; i++){
+        json.append(i == 0 ? "" : ",").append('"').append(i < BUCKETS.length ? String.valueOf(BUCKETS[i]) : "+Inf").append("\":");
+        json.append(timer.buckets[i].sum());
+      }
+      json.append("}}");
+      first = false;
+    }
+    json.append("},\"counters\":{");
+    first = true;
+    for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(counters).entrySet()){
+      json.append(first ? "" : ",").append(ScoredDocument.jsonString(entry.getKey())).append(':').append(entry.getValue().get());
+      first = false;
+    }
+    json.append("},\"gauges\":{");
+    first = true;
+    for (Map.Entry<String, Gauge> entry : new TreeMap<String, Gauge>(gauges).entrySet()){
+      json.append(first ? "" : ",").append(ScoredDocument.jsonString(entry.getKey())).append(':').append(entry.getValue().get());
+      first = false;
+    }
+    return json.append("}}").toString();
+  }
+
+  //https://prometheus.io/docs/instrumenting/exposition_formats/
+  public static String toPrometheus(){
+    StringBuilder text = new StringBuilder();
+    for (Map.Entry<String, Timer> entry : new TreeMap<String, Timer>(timers).entrySet()){
+      String name = entry.getKey();
+      Timer timer = entry.getValue();
+      text.append("# HELP ").append(name).append(' ').append(timer.help).append('\n');
+      text.append("# TYPE ").append(name).append(" histogram\n");
+      long cumulative = 0;
+      for (int i = 0; i <= BUCKETS.length; i++){
+        cumulative += timer.buckets[i].sum();
+        text.append(name).append("_bucket{le=\"").append(i < BUCKETS.length ? String.valueOf(BUCKETS[i]) : "+Inf");
+        text.append("\"} ").append(cumulative).append('\n');
+      }
+      text.append(name).append("_sum ").append(timer.getSumSeconds()).append('\n');
+      text.append(name).append("_count ").append(timer.getCount()).append('\n');
+    }
+    for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(counters).entrySet()){
+      String name = entry.getKey();
+      text.append("# HELP ").append(name).append(' ').append(entry.getValue().help).append('\n');
+      text.append("# TYPE ").append(name).append(" counter\n");
+      text.append(name).append(' ').append(entry.getValue().get()).append('\n');
+    }
+    for (Map.Entry<String, Gauge> entry : new TreeMap<String, Gauge>(gauges).entrySet()){
+      String name = entry.getKey();
+      text.append("# HELP ").append(name).append(' ').append(entry.getValue().help).append('\n');
+      text.append("# TYPE ").append(name).append(" gauge\n");
+      text.append(name).append(' ').append(entry.getValue().get()).append('\n');
+    }
+    return text.toString();
+  }
+
+  //Writes every metric to file, as JSON if its name ends in .json and in Prometheus format otherwise
+  public static void write(Path file) throws IOException {
+    String contents = file.getFileName().toString().endsWith(".json") ? toJson() : toPrometheus();
+    Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+  }
+
+}
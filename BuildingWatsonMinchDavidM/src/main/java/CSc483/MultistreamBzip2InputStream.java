@@ -0,0 +1,184 @@
+package CSc483;
+
+/**
+ * MultistreamBzip2InputStream class
+ * Decompresses a bzip2 file on every core. A multistream dump (the way Wikipedia publishes them)
+ * is many small bzip2 streams written one after the other, and each stream can be decompressed on
+ * its own. This class reads the compressed bytes in order, cuts them into chunks of about CHUNK_SIZE
+ * at the start of a stream ("BZh", the block size, then the magic number of the first block, which
+ * always starts on a byte), and decompresses the chunks in parallel. The decompressed chunks are
+ * handed out in order, so a reader sees the same bytes a plain bzip2 stream would give it.
+ * At most one chunk per core (plus one) is in flight, which bounds the memory used.
+ * A file that is one big bzip2 stream (no stream starts within MAX_CHUNK_SIZE) is decompressed
+ * on one thread as it is read, the way any bzip2 file is.
+ *
+ * USAGE:
+ * InputStream text = new MultistreamBzip2InputStream(Files.newInputStream(path));
+ */
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+public class MultistreamBzip2InputStream extends InputStream {
+
+  public static int CHUNK_SIZE = 1 << 20;             //Compressed bytes per chunk, at least
+  public static int MAX_CHUNK_SIZE = 16 * CHUNK_SIZE; //Past this without a stream start, decompress on one thread
+
+  private static final byte[] blockMagic = {0x31, 0x41, 0x59, 0x26, 0x53, 0x59};
+  private static ExecutorService pool;
+
+  private final InputStream compressed;
+  private final int maxInFlight = Runtime.getRuntime().availableProcessors() + 1;
+  private final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<Future<byte[]>>();
+  private byte[] pending = new byte[0]; //Compressed bytes read but not yet cut into a chunk
+  private int pendingLength;
+  private int searchedTo;               //No stream starts in pending before this
+  private boolean endOfInput;
+  private InputStream sequential;       //The rest of a file that isn't multistream
+  private byte[] current = new byte[0]; //The decompressed chunk being read
+  private int currentOffset;
+
+  public MultistreamBzip2InputStream(InputStream compressed){
+    this.compressed = compressed;
+  }
+
+  //Daemon threads, one per core, shared by every stream
+  private static synchronized ExecutorService pool(){
+    if (pool == null)
+      pool = BatchSearcher.newPool("watson-bzip2");
+    return pool;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] one = new byte[1];
+    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0)
+      return 0;
+    while (currentOffset == current.length){
+      fill();
+      Future<byte[]> next = inFlight.poll();
+      if (next == null)
+        return (sequential != null) ? sequential.read(buffer, offset, length) : -1;
+      current = get(next);
+      currentOffset = 0;
+    }
+    int count = Math.min(length, current.length - currentOffset);
+    System.arraycopy(current, currentOffset, buffer, offset, count);
+    currentOffset += count;
+    return count;
+  }
+
+  //Keeps maxInFlight chunks decompressing
+  private void fill() throws IOException {
+    while (inFlight.size() < maxInFlight && sequential == null){
+      byte[] chunk = nextChunk();
+      if (chunk == null)
+        return;
+      inFlight.add(pool().submit(() -> decompress(chunk)));
+    }
+  }
+
+  //The next run of whole streams, null at the end of the input (or once it's read sequentially)
+  private byte[] nextChunk() throws IOException {
+    while (true){
+      int cut = findStreamStart(Math.max(CHUNK_SIZE, searchedTo));
+      if (cut > 0){
+        byte[] chunk = Arrays.copyOf(pending, cut);
+        System.arraycopy(pending, cut, pending, 0, pendingLength - cut);
+        pendingLength -= cut;
+        searchedTo = 0;
+        return chunk;
+      }
+      searchedTo = Math.max(CHUNK_SIZE, pendingLength - 9); //A stream start may straddle the next read
+      if (endOfInput){
+        if (pendingLength == 0)
+          return null;
+        byte[] chunk = Arrays.copyOf(pending, pendingLength);
+        pendingLength = 0;
+        return chunk;
+      }
+      if (pendingLength >= MAX_CHUNK_SIZE){
+        //One long stream, the chunks already in flight are read first
+        sequential = new BZip2CompressorInputStream(
+            new SequenceInputStream(new ByteArrayInputStream(pending, 0, pendingLength), compressed), true);
+        pending = new byte[0];
+        pendingLength = 0;
+        return null;
+      }
+      if (pending.length - pendingLength < CHUNK_SIZE)
+        pending = Arrays.copyOf(pending, pendingLength + 2 * CHUNK_SIZE);
+      int read = compressed.read(pending, pendingLength, pending.length - pendingLength);
+      if (read < 0){
+        endOfInput = true;
+      } else {
+        pendingLength += read;
+      }
+    }
+  }
+
+  //Where the first stream at or after from starts in pending, -1 if none does (yet)
+  private int findStreamStart(int from){
+    for (int i = from; i + 10 <= pendingLength; i++){
+      if (pending[i] == 'B' && pending[i + 1] == 'Z' && pending[i + 2] == 'h'
+          && pending[i + 3] >= '1' && pending[i + 3] <= '9' && pending[i + 4] == blockMagic[0]
+          && pending[i + 5] == blockMagic[1] && pending[i + 6] == blockMagic[2] && pending[i + 7] == blockMagic[3]
+          && pending[i + 8] == blockMagic[4] && pending[i + 9] == blockMagic[5])
+        return i;
+    }
+    return -1;
+  }
+
+  static byte[] decompress(byte[] chunk) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(chunk.length * 5);
+    try (InputStream in = new BZip2CompressorInputStream(new ByteArrayInputStream(chunk), true)) {
+      byte[] buffer = new byte[1 << 16];
+      int read;
+      while ((read = in.read(buffer)) > 0){
+        out.write(buffer, 0, read);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] get(Future<byte[]> chunk) throws IOException {
+    try {
+      return chunk.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while decompressing");
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Future<byte[]> chunk : inFlight){
+      chunk.cancel(true);
+    }
+    inFlight.clear();
+    if (sequential != null)
+      sequential.close();
+    compressed.close();
+  }
+
+}
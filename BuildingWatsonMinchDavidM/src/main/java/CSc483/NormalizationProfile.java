@@ -0,0 +1,75 @@
+package CSc483;
+
+/**
+ * NormalizationProfile enum
+ * How text is turned into index terms. An index is built with one profile and has to be queried
+ * with the same one, so the profile is written into the index's commit data (see
+ * WikipediaParser) and the matching analyzer is picked when the index is loaded.
+ * FULL: CoreNLP tokenizing and part of speech tagging, lemmas, Porter stemming and the stop word
+ *       rules of TextLemmenizer (WatsonAnalyzer).
+ * FAST: Lucene tokenizing, lowercasing, stop words and Porter stemming, no CoreNLP (FastAnalyzer).
+ * An index without a recorded profile was built before WatsonAnalyzer, when StandardAnalyzer split the
+ * lemmenized text again (dropping the "'s" and "n't" CoreNLP splits off, and splitting hyphenated
+ * words). Its terms are close to FULL's but not the same, so it is searched as FULL but has to be
+ * parsed again (see isRecorded).
+ */
+
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+
+import java.io.IOException;
+
+public enum NormalizationProfile {
+
+  FULL(new WatsonAnalyzer()),
+  FAST(new FastAnalyzer());
+
+  //The commit data key the profile is stored under
+  public static final String commitDataKey = "watson.profile";
+
+  private final Analyzer analyzer;
+
+  NormalizationProfile(Analyzer analyzer){
+    this.analyzer = analyzer;
+  }
+
+  public Analyzer getAnalyzer(){
+    return this.analyzer;
+  }
+
+  //Case insensitive, null if there is no such profile
+  public static NormalizationProfile fromName(String name){
+    for (NormalizationProfile profile : values()){
+      if (profile.name().equalsIgnoreCase(name))
+        return profile;
+    }
+    return null;
+  }
+
+  //The profile an index was built with, FULL for indexes from before profiles were recorded
+  public static NormalizationProfile of(IndexReader index) throws IOException {
+    if (index instanceof ShardedReader)
+      return of(((ShardedReader) index).getShards()[0]); //Every shard is built with the same profile
+    if (!(index instanceof DirectoryReader))
+      return FULL;
+    return fromCommitData(((DirectoryReader) index).getIndexCommit().getUserData());
+  }
+
+  //Whether index was built by a parse that records its profile, i.e. with the analyzers above
+  public static boolean isRecorded(IndexReader index) throws IOException {
+    if (index instanceof ShardedReader)
+      return isRecorded(((ShardedReader) index).getShards()[0]);
+    if (!(index instanceof DirectoryReader))
+      return true; //Nothing to go by, assume it's current
+    return ((DirectoryReader) index).getIndexCommit().getUserData().containsKey(commitDataKey);
+  }
+
+  public static NormalizationProfile fromCommitData(Map<String, String> commitData){
+    NormalizationProfile profile = fromName(commitData.get(commitDataKey));
+    return (profile == null) ? FULL : profile;
+  }
+
+}
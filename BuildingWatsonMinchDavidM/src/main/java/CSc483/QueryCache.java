@@ -0,0 +1,119 @@
+package CSc483;
+
+/**
+ * QueryCache class
+ * A bounded, thread-safe cache for work done per query, used twice: once from a raw query to its
+ * lemmenized form (TextLemmenizer), and once from a lemmenized query to its top documents
+ * (WikipediaParser). The same clues are asked over and over, and both steps are far slower than
+ * a lookup.
+ * It is a SegmentedCache like TokenCache. On top of that every entry expires ttl after it was
+ * stored, and remembers how long it took to compute, so every hit adds that time to the time
+ * saved. Results depend on the index, so invalidate() drops everything once the index generation
+ * it is given changes.
+ * A maximum size of 0 turns the cache off, a ttl of 0 keeps entries until they are evicted.
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+public class QueryCache<V> extends SegmentedCache<QueryCache.Entry<V>> {
+
+  public static final int DEFAULT_SIZE = 10000;
+  public static final int DEFAULT_TTL_SECONDS = 3600;
+
+  private final String name;
+  private final long ttlNanos;
+  private final LongAdder savedNanos = new LongAdder();
+  private final LongSupplier clock; //Nanoseconds, System.nanoTime() outside of tests
+  private volatile Object generation;
+
+  public QueryCache(String name, int maxSize, int ttlSeconds){
+    this(name, maxSize, ttlSeconds, System::nanoTime);
+  }
+
+  QueryCache(String name, int maxSize, int ttlSeconds, LongSupplier clock){
+    super(maxSize);
+    this.name = name;
+    this.clock = clock;
+    this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(0, ttlSeconds));
+  }
+
+  public QueryCache(String name){
+    this(name, DEFAULT_SIZE, DEFAULT_TTL_SECONDS);
+  }
+
+  @Override
+  protected boolean isExpired(Entry<V> entry){
+    return ttlNanos > 0 && clock.getAsLong() - entry.stored > ttlNanos;
+  }
+
+  //Returns the cached value, or null (and counts a miss) if it isn't cached or has expired
+  public V get(String key){
+    Entry<V> entry = lookup(key);
+    if (entry == null)
+      return null;
+    savedNanos.add(entry.costNanos);
+    return entry.value;
+  }
+
+  //Only returns a value computed for generation, so a search of an older (or newer) index than
+  //the cache was last invalidated for always misses
+  public V get(String key, Object generation){
+    Object current = this.generation;
+    if (current != null && !current.equals(generation)){
+      countMiss();
+      return null;
+    }
+    return get(key);
+  }
+
+  //costNanos is how long the value took to compute, i.e. what a later hit saves
+  public void put(String key, V value, long costNanos){
+    store(key, new Entry<V>(value, clock.getAsLong(), costNanos));
+  }
+
+  //Only stores the value if it was computed for the current generation. A query that was still
+  //running on an old index when the cache was invalidated can't put its stale result back.
+  public void put(String key, V value, long costNanos, Object generation){
+    //Checked under the segment's lock, which invalidate() takes after changing the generation
+    storeIf(key, new Entry<V>(value, clock.getAsLong(), costNanos),
+            () -> this.generation == null || this.generation.equals(generation));
+  }
+
+  //Drops every entry if generation differs from the one the entries were computed for
+  public synchronized void invalidate(Object generation){
+    boolean changed = this.generation != null && !this.generation.equals(generation);
+    this.generation = generation;
+    if (changed)
+      clearEntries();
+  }
+
+  //Drops every entry, e.g. when what the values were computed with changes
+  public void clear(){
+    clearEntries();
+  }
+
+  public double getSavedMillis(){
+    return savedNanos.sum() / 1e6;
+  }
+
+  @Override
+  public String toString(){
+    return String.format("%s: %d hits, %d misses (%.1f%% hit rate), %d of %d entries used, %.1f ms saved.",
+                         name, getHits(), getMisses(), getHitRate() * 100, size(), getMaxSize(), getSavedMillis());
+  }
+
+  static class Entry<V> {
+    final V value;
+    final long stored;
+    final long costNanos;
+
+    Entry(V value, long stored, long costNanos){
+      this.value = value;
+      this.stored = stored;
+      this.costNanos = costNanos;
+    }
+  }
+
+}
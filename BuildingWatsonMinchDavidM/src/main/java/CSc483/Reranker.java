@@ -0,0 +1,27 @@
+package CSc483;
+
+/**
+ * Reranker interface
+ * The second phase of a search. BatchSearcher first fetches the best few dozen candidates by BM25
+ * alone, which is cheap, and then hands them to a Reranker, which can afford to look much closer at
+ * each one than the index could at every document. Only the 10 best after reranking are kept.
+ * The Jeopardy category is given separately from the clue, so a reranker can weigh it on its own.
+ * A reranker that can't finish (e.g. it runs out of time) returns null, and the BM25 order is kept.
+ * BatchSearcher doesn't cache that result, so the query is reranked again the next time it's asked.
+ *
+ * @see FeatureReranker
+ */
+
+import java.util.ArrayList;
+
+import org.apache.lucene.index.IndexReader;
+
+public interface Reranker {
+
+  //Returns the candidates (found in index) reordered best first, with their new scores, or null
+  //to keep the BM25 order. The query and category have been lemmenized with profile, the index's
+  //profile, and the category may be empty.
+  ArrayList<ScoredDocument> rerank(IndexReader index, NormalizationProfile profile, String lemmenizedQuery,
+                                   String lemmenizedCategory, ArrayList<ScoredDocument> candidates);
+
+}
@@ -3,19 +3,33 @@ package CSc483;
 /**
  * ScoredDocument class
  * This class is an object that stores the title of a document and the score that document received
- * given a certain query.
+ * given a certain query. The Lucene document number is kept too (-1 if it isn't known), so a
+ * Reranker can look the document up again in the index it was found in.
  */
 
 public class ScoredDocument implements Comparable<ScoredDocument> {
 
   String documentID;
   double score;
+  int docId = -1;
 
   public ScoredDocument(String documentID, double score){
-    this.documentID = documentID.substring(2, documentID.length() - 2); //Remove [[ ]]
+    this.documentID = stripBrackets(documentID);
     this.score = score;
   }
 
+  public ScoredDocument(String documentID, double score, int docId){
+    this(documentID, score);
+    this.docId = docId;
+  }
+
+  //Titles are indexed without their [[ ]], but some old indexes kept them
+  static String stripBrackets(String title){
+    if (title.length() >= 4 && title.startsWith("[[") && title.endsWith("]]"))
+      return title.substring(2, title.length() - 2);
+    return title;
+  }
+
   public String getDocumentID(){
     return this.documentID;
   }
@@ -24,6 +38,31 @@ public class ScoredDocument implements Comparable<ScoredDocument> {
     return this.score;
   }
 
+  public int getDocId(){
+    return this.docId;
+  }
+
+  public String toJson(){
+    return "{\"documentID\":" + jsonString(documentID) + ",\"score\":" + score + "}";
+  }
+
+  //Quotes and escapes a String for use as a JSON value
+  public static String jsonString(String value){
+    StringBuilder json = new StringBuilder(value.length() + 2);
+    json.append('"');
+    for (int i = 0; i < value.length(); i++){
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\'){
+        json.append('\\').append(c);
+      } else if (c < 0x20){
+        json.append(String.format("\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+    return json.append('"').toString();
+  }
+
   @Override
   public int compareTo(ScoredDocument o) {
     
@@ -0,0 +1,154 @@
+package CSc483;
+
+/**
+ * SegmentedCache class
+ * The bounded, thread-safe LRU map that TokenCache and QueryCache are built on.
+ * It is split into segments, each a small access ordered LinkedHashMap with its own lock, so
+ * threads looking up different keys rarely wait on each other. When a segment is full its least
+ * recently used entry is evicted. Hits and misses are counted so the hit rate can be reported.
+ * Subclasses decide what is stored per key, and can have an entry treated as a miss by
+ * overriding isExpired().
+ * A maximum size of 0 turns the cache off.
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+public abstract class SegmentedCache<T> {
+
+  private static final int SEGMENTS = 16;
+
+  private final Segment<T>[] segments;
+  private final int maxSize;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  @SuppressWarnings("unchecked")
+  protected SegmentedCache(int maxSize){
+    this.maxSize = Math.max(0, maxSize);
+    this.segments = new Segment[SEGMENTS];
+    int perSegment = (this.maxSize + SEGMENTS - 1) / SEGMENTS;
+    for (int i = 0; i < SEGMENTS; i++){
+      segments[i] = new Segment<T>(perSegment);
+    }
+  }
+
+  //Called under the segment's lock. An expired entry is removed and counted as a miss.
+  protected boolean isExpired(T entry){
+    return false;
+  }
+
+  //Returns the cached entry, or null (and counts a miss) if the key isn't cached or has expired
+  protected final T lookup(String key){
+    if (maxSize == 0){
+      misses.increment();
+      return null;
+    }
+    Segment<T> segment = segmentFor(key);
+    T entry;
+    synchronized (segment) {
+      entry = segment.get(key);
+      if (entry != null && isExpired(entry)){
+        segment.remove(key);
+        entry = null;
+      }
+    }
+    if (entry == null){
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return entry;
+  }
+
+  protected final void store(String key, T entry){
+    if (maxSize == 0)
+      return;
+    Segment<T> segment = segmentFor(key);
+    synchronized (segment) {
+      segment.put(key, entry);
+    }
+  }
+
+  //Only stores the entry if condition holds. It is checked under the segment's lock, which
+  //clearEntries() also takes, so a subclass can change what condition sees and then clear.
+  protected final void storeIf(String key, T entry, BooleanSupplier condition){
+    if (maxSize == 0)
+      return;
+    Segment<T> segment = segmentFor(key);
+    synchronized (segment) {
+      if (condition.getAsBoolean())
+        segment.put(key, entry);
+    }
+  }
+
+  //Counts a lookup a subclass turned away before it reached the segments
+  protected final void countMiss(){
+    misses.increment();
+  }
+
+  //Drops every entry, but keeps the hit and miss counts
+  protected final void clearEntries(){
+    for (Segment<T> segment : segments){
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  protected final void resetCounts(){
+    hits.reset();
+    misses.reset();
+  }
+
+  private Segment<T> segmentFor(String key){
+    int hash = key.hashCode();
+    hash ^= (hash >>> 16);
+    return segments[hash & (SEGMENTS - 1)];
+  }
+
+  public int size(){
+    int size = 0;
+    for (Segment<T> segment : segments){
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  public int getMaxSize(){
+    return this.maxSize;
+  }
+
+  public long getHits(){
+    return hits.sum();
+  }
+
+  public long getMisses(){
+    return misses.sum();
+  }
+
+  public double getHitRate(){
+    long lookups = getHits() + getMisses();
+    return (lookups == 0) ? 0.0 : ((double) getHits()) / lookups;
+  }
+
+  //An access ordered LinkedHashMap that drops its eldest entry once it's full
+  private static class Segment<T> extends LinkedHashMap<String, T> {
+    private final int capacity;
+
+    Segment(int capacity){
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, T> eldest){
+      return size() > capacity;
+    }
+  }
+
+}
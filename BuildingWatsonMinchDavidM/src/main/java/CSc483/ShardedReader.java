@@ -0,0 +1,168 @@
+package CSc483;
+
+/**
+ * ShardedReader class
+ * An index can be split into shards, each its own Lucene index in a shard-N directory of the index
+ * directory. Every article goes to the shard picked by a hash of its title (see shardOf), so an
+ * updated article always replaces itself in the same shard.
+ * This class reads all the shards as one index. It is a MultiReader, so an IndexSearcher over it
+ * sums document frequencies and lengths over every shard, and a document scores the same no matter
+ * which shard it is in (or whether the index is sharded at all). Given an executor, BatchSearcher
+ * searches each shard as its own slice in parallel and merges the shards' top documents.
+ * An index that isn't sharded is opened as the plain DirectoryReader it always was.
+ * openIfChanged() reopens only the shards that have new commits, the others are shared with the
+ * reader it was given, the same way DirectoryReader.openIfChanged shares unchanged segments.
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.FSDirectory;
+
+public class ShardedReader extends MultiReader {
+
+  public static final String shardPrefix = "shard-";
+
+  private final DirectoryReader[] shards;
+
+  //Takes over the caller's reference to every shard, which is released when this reader is closed
+  public ShardedReader(DirectoryReader[] shards) throws IOException {
+    super(shards, false); //Shards are reference counted, so they can be shared by a reopened reader
+    this.shards = shards;
+    for (DirectoryReader shard : shards){
+      shard.decRef();
+    }
+  }
+
+  public DirectoryReader[] getShards(){
+    return this.shards;
+  }
+
+  //String.hashCode is fixed by the Java spec, so a title lands in the same shard on every JVM
+  public static int shardOf(String title, int shardCount){
+    return (title.hashCode() & 0x7fffffff) % shardCount;
+  }
+
+  public static Path shardPath(Path index, int shard){
+    return index.resolve(shardPrefix + shard);
+  }
+
+  //How many shards the index in this directory has, 0 if it isn't sharded
+  public static int countShards(Path index) throws IOException {
+    int shards = 0;
+    while (Files.isDirectory(shardPath(index, shards))){
+      try (FSDirectory shard = FSDirectory.open(shardPath(index, shards))) {
+        if (!DirectoryReader.indexExists(shard))
+          break;
+      }
+      shards++;
+    }
+    return shards;
+  }
+
+  //Opens every shard of the index, or the index itself if it isn't sharded
+  public static IndexReader open(Path index) throws IOException {
+    int shardCount = countShards(index);
+    if (shardCount == 0)
+      return DirectoryReader.open(FSDirectory.open(index));
+    DirectoryReader[] shards = new DirectoryReader[shardCount];
+    for (int shard = 0; shard < shardCount; shard++){
+      shards[shard] = DirectoryReader.open(FSDirectory.open(shardPath(index, shard)));
+    }
+    return new ShardedReader(shards);
+  }
+
+  //A reader of the latest commit of the index reader shows, or null if nothing has changed (or the
+  //reader isn't one that can be reopened). An index that has been split into another number of
+  //shards since is opened from scratch.
+  public static IndexReader openIfChanged(IndexReader reader) throws IOException {
+    Path index = pathOf(reader);
+    int shardCount = (reader instanceof ShardedReader) ? ((ShardedReader) reader).shards.length : 0;
+    if (index != null && countShards(index) != shardCount)
+      return open(index);
+    if (reader instanceof ShardedReader)
+      return openIfChanged((ShardedReader) reader);
+    if (reader instanceof DirectoryReader)
+      return DirectoryReader.openIfChanged((DirectoryReader) reader);
+    return null;
+  }
+
+  //The index directory a reader was opened from, null if it wasn't opened from one
+  static Path pathOf(IndexReader reader){
+    if (reader instanceof ShardedReader)
+      return pathOf(((ShardedReader) reader).shards[0]).getParent();
+    if (reader instanceof DirectoryReader && ((DirectoryReader) reader).directory() instanceof FSDirectory)
+      return ((FSDirectory) ((DirectoryReader) reader).directory()).getDirectory();
+    return null;
+  }
+
+  //A reader of the shards' latest commits, or null if no shard has changed
+  private static ShardedReader openIfChanged(ShardedReader reader) throws IOException {
+    DirectoryReader[] shards = new DirectoryReader[reader.shards.length];
+    boolean changed = false;
+    try {
+      for (int shard = 0; shard < shards.length; shard++){
+        shards[shard] = DirectoryReader.openIfChanged(reader.shards[shard]);
+        if (shards[shard] == null){
+          shards[shard] = reader.shards[shard];
+          shards[shard].incRef();
+        } else {
+          changed = true;
+        }
+      }
+    } catch (IOException e) {
+      for (DirectoryReader shard : shards){
+        if (shard != null)
+          shard.decRef();
+      }
+      throw e;
+    }
+    if (!changed){
+      for (DirectoryReader shard : shards){
+        shard.decRef();
+      }
+      return null;
+    }
+    return new ShardedReader(shards);
+  }
+
+  //Deletes the shard directories numbered from on, left over from a layout with more shards
+  public static void deleteShards(Path index, int from) throws IOException {
+    for (int shard = from; Files.isDirectory(shardPath(index, shard)); shard++){
+      Files.walk(shardPath(index, shard)).sorted((a, b) -> b.compareTo(a)).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  //One slice per shard, so each shard is searched on its own thread.
+  //null if the leaves aren't a ShardedReader's, which IndexSearcher slices as it always does.
+  static IndexSearcher.LeafSlice[] slices(List<LeafReaderContext> leaves){
+    if (leaves.isEmpty() || !(ReaderUtil.getTopLevelContext(leaves.get(0)).reader() instanceof ShardedReader))
+      return null;
+    Map<IndexReaderContext, List<LeafReaderContext>> byShard = new LinkedHashMap<IndexReaderContext, List<LeafReaderContext>>();
+    for (LeafReaderContext leaf : leaves){
+      byShard.computeIfAbsent(leaf.parent, shard -> new ArrayList<LeafReaderContext>()).add(leaf);
+    }
+    IndexSearcher.LeafSlice[] slices = new IndexSearcher.LeafSlice[byShard.size()];
+    int i = 0;
+    for (List<LeafReaderContext> shard : byShard.values()){
+      slices[i++] = new IndexSearcher.LeafSlice(shard.toArray(new LeafReaderContext[0]));
+    }
+    return slices;
+  }
+
+}
@@ -21,8 +21,10 @@ import edu.stanford.nlp.ling.Word;
  * Stemmer, implementing the Porter Stemming Algorithm
  * <p/>
  * The Stemmer class transforms a word into its root form.  The input
- * word can be provided a character at time (by calling add()), or at once
- * by calling one of the various stem(something) methods.
+ * word is provided by calling one of the various stem(something) methods.
+ * A Stemmer reuses its buffer from word to word, so the char[] and
+ * CharSequence methods allocate nothing once the buffer has grown to fit
+ * the longest word seen. A Stemmer is not thread-safe; keep one per thread.
  *
  * @author Sepandar Kamvar (sdkamvar@stanford.edu)
  */
@@ -41,23 +43,13 @@ public class Stemmer implements Function<Word,Word> {
     i_end = 0;
   }
 
-  /**
-   * Add a character to the word being stemmed.  When you are finished
-   * adding characters, you can call stem(void) to stem the word.
-   */
-
-  private void add(char ch) {
-    if (i == b.length) {
-      char[] new_b = new char[i + INC];
-      for (int c = 0; c < i; c++) {
-        new_b[c] = b[c];
-      }
-      b = new_b;
+  /* Makes sure b can hold a word of the given length. */
+  private void ensureCapacity(int length) {
+    if (length > b.length) {
+      b = new char[length + INC];
     }
-    b[i++] = ch;
   }
 
-
   /**
    * After a word has been stemmed, it can be retrieved by toString(),
    * or a reference to the internal buffer can be retrieved by getResultBuffer
@@ -68,6 +60,16 @@ public class Stemmer implements Function<Word,Word> {
     return new String(b, 0, i_end);
   }
 
+  /** Returns the internal buffer holding the last stem, valid up to getResultLength(). */
+  public char[] getResultBuffer() {
+    return b;
+  }
+
+  /** Returns the length of the last stem. */
+  public int getResultLength() {
+    return i_end;
+  }
+
 
   /* cons(i) is true <=> b[i] is a consonant. */
   private final boolean cons(int i) {
@@ -571,17 +573,51 @@ public class Stemmer implements Function<Word,Word> {
 
   /**
    * Stems <code>s</code> and returns stemmed <code>String</code>.
+   * If the stem is the word itself, <code>s</code> is returned as is.
    */
 
   public String stem(String s) {
-    char[] characters = s.toCharArray();
-    for (char character : characters) {
-      add(character);
+    stem((CharSequence) s);
+    if (i_end == s.length()) {
+      int c = 0;
+      while (c < i_end && b[c] == s.charAt(c)) {
+        c++;
+      }
+      if (c == i_end) {
+        return s;
+      }
     }
-    stem();
     return toString();
   }
 
+  /**
+   * Stems <code>word</code> into the internal buffer and returns the length
+   * of the stem. The stem can be read with getResultBuffer()/getResultLength().
+   */
+  public int stem(CharSequence word) {
+    int length = word.length();
+    ensureCapacity(length);
+    for (int c = 0; c < length; c++) {
+      b[c] = word.charAt(c);
+    }
+    i = length;
+    stem();
+    return i_end;
+  }
+
+  /**
+   * Stems the word in <code>buffer[offset, offset + length)</code> in place and
+   * returns the length of the stem, which is never longer than the word.
+   */
+  public int stem(char[] buffer, int offset, int length) {
+    ensureCapacity(length);
+    System.arraycopy(buffer, offset, b, 0, length);
+    i = length;
+    stem();
+    System.arraycopy(b, 0, buffer, offset, i_end);
+    return i_end;
+  }
+
   /**
    * Stems <code>w</code> and returns stemmed <code>Word</code>.
    */
@@ -0,0 +1,56 @@
+package CSc483;
+
+/**
+ * StemmerFilter class
+ * A Lucene TokenFilter that runs the Porter Stemmer over every token in place, so stemming can be
+ * done inside an analysis chain. The stem is written straight back into the CharTermAttribute
+ * buffer with the filter's own reusable Stemmer, so no Strings are built per token.
+ * Tokens marked as keywords are left alone.
+ * With an enabled supplier the filter asks it on every reset(), i.e. once per stream, and passes
+ * the tokens through unchanged when it says no. Lucene reuses an analyzer's filters, so this lets
+ * a setting like TextLemmenizer.STEM be changed after the analyzer was first used.
+ */
+
+import java.io.IOException;
+import java.util.function.BooleanSupplier;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+
+public final class StemmerFilter extends TokenFilter {
+
+  private final Stemmer stemmer = new Stemmer();
+  private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
+  private final KeywordAttribute keywordAttribute = addAttribute(KeywordAttribute.class);
+  private final BooleanSupplier enabled;
+  private boolean stemming = true;
+
+  public StemmerFilter(TokenStream input){
+    this(input, () -> true);
+  }
+
+  public StemmerFilter(TokenStream input, BooleanSupplier enabled){
+    super(input);
+    this.enabled = enabled;
+  }
+
+  @Override
+  public void reset() throws IOException {
+    super.reset();
+    stemming = enabled.getAsBoolean();
+  }
+
+  @Override
+  public boolean incrementToken() throws IOException {
+    if (!input.incrementToken())
+      return false;
+    if (stemming && !keywordAttribute.isKeyword()){
+      int stemLength = stemmer.stem(termAttribute.buffer(), 0, termAttribute.length());
+      termAttribute.setLength(stemLength);
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,99 @@
+package CSc483;
+
+/**
+ * StopWordSet class
+ * An immutable open addressing hash set of words, used for the stop word check on every token.
+ * The table is a power of two at most half full, and collisions are resolved by linear probing,
+ * so a lookup is one hash over the characters and usually a single comparison.
+ * Words can be looked up straight from a char[] slice (e.g. a CharTermAttribute buffer) without
+ * building a String.
+ */
+
+public class StopWordSet {
+
+  private final String[] table;
+  private final int mask;
+  private final int size;
+
+  public StopWordSet(String[] words){
+    int capacity = Integer.highestOneBit(Math.max(2, words.length) * 4 - 1);
+    this.table = new String[capacity];
+    this.mask = capacity - 1;
+    int count = 0;
+    for (String word : words){
+      int slot = hash(word) & mask;
+      while (table[slot] != null && !table[slot].equals(word)){
+        slot = (slot + 1) & mask;
+      }
+      if (table[slot] == null){
+        table[slot] = word;
+        count++;
+      }
+    }
+    this.size = count;
+  }
+
+  public boolean contains(CharSequence word){
+    int slot = hash(word) & mask;
+    String candidate;
+    while ((candidate = table[slot]) != null){
+      if (equals(candidate, word))
+        return true;
+      slot = (slot + 1) & mask;
+    }
+    return false;
+  }
+
+  public boolean contains(char[] buffer, int offset, int length){
+    int hash = 0;
+    for (int i = 0; i < length; i++){
+      hash = 31 * hash + buffer[offset + i];
+    }
+    int slot = spread(hash) & mask;
+    String candidate;
+    while ((candidate = table[slot]) != null){
+      if (equals(candidate, buffer, offset, length))
+        return true;
+      slot = (slot + 1) & mask;
+    }
+    return false;
+  }
+
+  public int size(){
+    return this.size;
+  }
+
+  //Same as String.hashCode(), so both lookups land in the same slot
+  private static int hash(CharSequence word){
+    int hash = 0;
+    for (int i = 0; i < word.length(); i++){
+      hash = 31 * hash + word.charAt(i);
+    }
+    return spread(hash);
+  }
+
+  private static int spread(int hash){
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean equals(String candidate, CharSequence word){
+    if (candidate.length() != word.length())
+      return false;
+    for (int i = 0; i < candidate.length(); i++){
+      if (candidate.charAt(i) != word.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+  private static boolean equals(String candidate, char[] buffer, int offset, int length){
+    if (candidate.length() != length)
+      return false;
+    for (int i = 0; i < length; i++){
+      if (candidate.charAt(i) != buffer[offset + i])
+        return false;
+    }
+    return true;
+  }
+
+}
@@ -11,18 +11,33 @@ package CSc483;
  *       That is, short queries are treated like quotes
  *   3b) If it's a document, then any stop words that aren't part of a quote are removed
  * After the text is lemmenized, it is returned.
+ * All of this happens in one Lucene token stream, WatsonAnalyzer, which the index is built with
+ * as well; lemmenizeText() just joins the terms it produces.
+ * That is the FULL NormalizationProfile. The FAST profile swaps in FastAnalyzer, which skips
+ * CoreNLP (and so lemmas and part of speech tags) for much cheaper Lucene tokenizing.
  * NOTE: stemming and lemmenization can each be turned off using the class static variables
  * If the text was originally an ArrayList of queries, it is returned as a hash map mapping the
- * original query to the lemmenized version.
+ * original query to the lemmenized version. A batch of queries is spread over a pool of worker
+ * threads, which share the one pipeline just like the threads that parse Wikipedia files do.
+ * Building a StanfordCoreNLP pipeline loads the tagger models, so one pipeline is built, on first
+ * use, and shared by every caller (and every thread) for the life of the JVM.
+ * Call warmUp() at startup so the first real line doesn't pay for the model load.
+ * The normalized form of every token is remembered in a bounded TokenCache, since the same
+ * few thousand words make up most of Wikipedia.
  */
 
 import java.util.HashMap;
 import java.util.ArrayList;
 
 import java.util.List;
-import java.util.regex.Pattern;
 import java.util.Properties;
-import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 import java.lang.invoke.MethodHandles;
 
@@ -36,6 +51,11 @@ import edu.stanford.nlp.util.CoreMap;
 import edu.stanford.nlp.ling.CoreAnnotations.*;
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.patterns.surface.Token;
+import edu.stanford.nlp.process.Morphology;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,76 +68,275 @@ public class TextLemmenizer{
 
   public static String[] STOPWORDS = {"a", "about", "above", "above", "across", "after", "afterwards", "again", "against", "all", "almost", "alone", "along", "already", "also","although","always","am","among", "amongst", "amoungst", "amount",  "an", "and", "another", "any","anyhow","anyone","anything","anyway", "anywhere", "are", "around", "as",  "at", "back","be","became", "because","become","becomes", "becoming", "been", "before", "beforehand", "behind", "being", "below", "beside", "besides", "between", "beyond", "bill", "both", "bottom","but", "by", "call", "can", "cannot", "cant", "co", "con", "could", "couldnt", "cry", "de", "describe", "detail", "do", "done", "down", "due", "during", "each", "eg", "eight", "either", "eleven","else", "elsewhere", "empty", "enough", "etc", "even", "ever", "every", "everyone", "everything", "everywhere", "except", "few", "fifteen", "fify", "fill", "find", "fire", "first", "five", "for", "former", "formerly", "forty", "found", "four", "from", "front", "full", "further", "get", "give", "go", "had", "has", "hasnt", "have", "he", "hence", "her", "here", "hereafter", "hereby", "herein", "hereupon", "hers", "herself", "him", "himself", "his", "how", "however", "hundred", "ie", "if", "in", "inc", "indeed", "interest", "into", "is", "it", "its", "itself", "keep", "last", "latter", "latterly", "least", "less", "ltd", "made", "many", "may", "me", "meanwhile", "might", "mill", "mine", "more", "moreover", "most", "mostly", "move", "much", "must", "my", "myself", "name", "namely", "neither", "never", "nevertheless", "next", "nine", "no", "nobody", "none", "noone", "nor", "not", "nothing", "now", "nowhere", "of", "off", "often", "on", "once", "one", "only", "onto", "or", "other", "others", "otherwise", "our", "ours", "ourselves", "out", "over", "own","part", "per", "perhaps", "please", "put", "rather", "re", "same", "see", "seem", "seemed", "seeming", "seems", "serious", "several", "she", "should", "show", "side", "since", "sincere", "six", "sixty", "so", "some", "somehow", "someone", "something", "sometime", "sometimes", "somewhere", "still", "such", "system", "take", "ten", "than", "that", "the", "their", "them", "themselves", "then", "thence", "there", "thereafter", "thereby", "therefore", "therein", "thereupon", "these", "they", "thickv", "thin", "third", "this", "those", "though", "three", "through", "throughout", "thru", "thus", "to", "together", "too", "top", "toward", "towards", "twelve", "twenty", "two", "un", "under", "until", "up", "upon", "us", "very", "via", "was", "we", "well", "were", "what", "whatever", "when", "whence", "whenever", "where", "whereafter", "whereas", "whereby", "wherein", "whereupon", "wherever", "whether", "which", "while", "whither", "who", "whoever", "whole", "whom", "whose", "why", "will", "with", "within", "without", "would", "yet", "you", "your", "yours", "yourself", "yourselves", "the"}; // From http://xpo6.com/list-of-english-stop-words/
 
+  //Hash set over STOPWORDS for the per-token check, and the POSIX punctuation characters (\\p{Punct})
+  private static final StopWordSet stopWordSet = new StopWordSet(STOPWORDS);
+  private static final boolean[] PUNCTUATION = punctuationTable();
+
+  //Reused by each thread to join tokens into the returned String
+  private static final ThreadLocal<StringBuilder> builders = ThreadLocal.withInitial(StringBuilder::new);
+
+  //The one pipeline, built by the first thread that needs it. StanfordCoreNLP.annotate() is safe
+  //to call concurrently.
+  private static volatile StanfordCoreNLP pipeline;
+
+  //A Stemmer reuses its buffer between words but isn't thread-safe, so each thread keeps one
+  private static final ThreadLocal<Stemmer> stemmers = ThreadLocal.withInitial(Stemmer::new);
+
+  //Memoizes token -> normalized form. Set the size with setTokenCacheSize(), 0 turns it off.
+  public static final int DEFAULT_TOKEN_CACHE_SIZE = 100000;
+  private static volatile TokenCache tokenCache = new TokenCache(DEFAULT_TOKEN_CACHE_SIZE);
+
+  //The profile (and its analyzer) the index is built with, so text given here is normalized
+  //exactly like the articles
+  private static volatile NormalizationProfile profile = NormalizationProfile.FULL;
+
+  //Remembers raw query -> lemmenized query, see lemmenizeQuery()
+  private static volatile QueryCache<String> queryCache = newQueryCache(QueryCache.DEFAULT_SIZE, QueryCache.DEFAULT_TTL_SECONDS);
+
+  private static final Metrics.Timer modelLoadTimer = Metrics.timer("watson_model_load_seconds",
+      "Time to load the NLP models and warm up the lemmenizer");
+  private static final Metrics.Timer queryLemmenizeTimer = Metrics.timer("watson_query_lemmenize_seconds",
+      "Time to lemmenize one query, cache hits included");
+
+  //Morphology (the lemmatizer behind CoreNLP's lemma annotator) isn't thread-safe either
+  private static final ThreadLocal<Morphology> morphologies = ThreadLocal.withInitial(Morphology::new);
+
   public static String lemmenizeText(String toLemmenize){
+    return lemmenizeText(toLemmenize, profile.getAnalyzer());
+  }
 
-    ArrayList<String> tokenArray = new ArrayList<String>();
+  public static String lemmenizeText(String toLemmenize, Analyzer analyzer){
 
-    // The next 12 lines come from the guide posted to Piazza by Jesse Bartels
-    // set the list of annotators to run
+    StringBuilder tokenString = builders.get();
+    tokenString.setLength(0);
 
-    Properties props = new Properties();
-    if (LEMMENIZE) {
-      props.setProperty("annotators", "tokenize, ssplit, pos, lemma");
+    try (TokenStream stream = analyzer.tokenStream("text", toLemmenize)) {
+      CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+      stream.reset();
+      while (stream.incrementToken()){
+        tokenString.append(' ').append(term);
+      }
+      stream.end();
+    } catch (IOException e) {
+      //Can't happen, the text is already in memory
+      throw new UncheckedIOException(e);
+    }
+
+    return tokenString.toString().trim();
+  }
+
+  public static Analyzer getAnalyzer(){
+    return profile.getAnalyzer();
+  }
+
+  public static NormalizationProfile getProfile(){
+    return profile;
+  }
+
+  //Lemmenized queries are cached per profile, so switching back and forth keeps both
+  public static void setProfile(NormalizationProfile newProfile){
+    profile = newProfile;
+  }
+
+  //Lemmenizes and/or stems one tagged token. Returns "" for punctuation, which gets dropped.
+  //The lemma only depends on the word and its part of speech tag, so the result is cached on both.
+  static String normalizeToken(String word, String tag){
+    //The settings are part of the key so changing STEM or LEMMENIZE never returns a stale form
+    String key = settingsKey() + word + '\t' + tag;
+    String normalized = tokenCache.get(key);
+    if (normalized != null)
+      return normalized;
+
+    String form = LEMMENIZE ? lemma(word, tag) : word;
+    if (isPunctuation(form)){
+      normalized = "";
+    } else if (STEM){
+      normalized = stemmers.get().stem(form);
     } else {
-      props.setProperty("annotators", "tokenize, ssplit, pos");
+      normalized = form;
     }
-    StanfordCoreNLP pipeline = new StanfordCoreNLP(props);
-
-    Annotation document = new Annotation(toLemmenize);
-    pipeline.annotate(document);
-
-    List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
-    for (CoreMap sentence : sentences) {
-      for (CoreLabel token: sentence.get(TokensAnnotation.class)) {
-        // Only use this token if it's not punctuation
-        if (LEMMENIZE && !Pattern.matches("\\p{Punct}+", token.get(LemmaAnnotation.class)) || 
-          (!LEMMENIZE && !Pattern.matches("\\p{Punct}+", token.word()))){
-
-          if (LEMMENIZE){
-            if (STEM){
-              Stemmer stem = new Stemmer();
-              tokenArray.add(stem.stem(token.get(LemmaAnnotation.class)));
-            } else {
-              tokenArray.add(token.get(LemmaAnnotation.class));
-            } 
-          } else {
-            if (STEM){
-              Stemmer stem = new Stemmer();
-              tokenArray.add(stem.stem(token.word()));
-            } else {
-              tokenArray.add(token.word());
-            }
-          }
+    tokenCache.put(key, normalized);
+    return normalized;
+  }
+
+  //Starts the cache keys of anything that depends on LEMMENIZE and STEM
+  static String settingsKey(){
+    return LEMMENIZE ? (STEM ? "LS" : "L-") : (STEM ? "-S" : "--");
+  }
+
+  //Same lemma as CoreNLP's lemma annotator gives, without a second pass over the sentence
+  private static String lemma(String word, String tag){
+    if (tag == null || tag.isEmpty())
+      return morphologies.get().stem(word);
+    return morphologies.get().lemma(word, tag);
+  }
+
+  public static void setTokenCacheSize(int maxSize){
+    tokenCache = new TokenCache(maxSize);
+  }
+
+  public static TokenCache getTokenCache(){
+    return tokenCache;
+  }
+
+  public static void setQueryCache(int maxSize, int ttlSeconds){
+    queryCache = newQueryCache(maxSize, ttlSeconds);
+  }
+
+  private static QueryCache<String> newQueryCache(int maxSize, int ttlSeconds){
+    return new QueryCache<String>("Lemmenized query cache", maxSize, ttlSeconds);
+  }
+
+  public static QueryCache<String> getQueryCache(){
+    return queryCache;
+  }
+
+  //Returns the shared pipeline, building it on first use. Lemmas are looked up per token
+  //(and cached) in normalizeToken(), whether LEMMENIZE is set or not, so the pipeline always
+  //stops at part of speech tagging and one is all there ever is.
+  public static StanfordCoreNLP getPipeline(){
+    StanfordCoreNLP built = pipeline;
+    if (built == null){
+      synchronized (TextLemmenizer.class) {
+        built = pipeline;
+        if (built == null){
+          built = buildPipeline("tokenize, ssplit, pos");
+          pipeline = built;
         }
       }
     }
+    return built;
+  }
+
+  private static StanfordCoreNLP buildPipeline(String annotators){
+    // The next few lines come from the guide posted to Piazza by Jesse Bartels
+    // set the list of annotators to run
+    Properties props = new Properties();
+    props.setProperty("annotators", annotators);
+    return new StanfordCoreNLP(props);
+  }
 
-    String tokenString = removeStopWords(tokenArray);
+  //Loads the models and runs one line through the pipeline so the JIT and the tagger
+  //are warm before real text arrives. Returns the time taken in milliseconds.
+  public static long warmUp(){
+    return warmUp(profile);
+  }
 
-    return tokenString.trim();
+  //Warms up the analyzer of another profile, e.g. that of an index that was loaded
+  public static long warmUp(NormalizationProfile warmProfile){
+    long start = System.nanoTime();
+    lemmenizeText("Watson is warming up the lemmenizer.", warmProfile.getAnalyzer());
+    long took = System.nanoTime() - start;
+    modelLoadTimer.record(took);
+    return took / 1000000;
   }
 
   public static HashMap<String, String> lemmenizeQueries(ArrayList<String> toLemmenize){
+    return lemmenizeQueries(toLemmenize, Runtime.getRuntime().availableProcessors());
+  }
+
+  //Lemmenizes every query on a pool of worker threads. Each query is one task, so a long clue
+  //never holds up the rest of the batch.
+  public static HashMap<String, String> lemmenizeQueries(ArrayList<String> toLemmenize, int workers){
+    return lemmenizeQueries(toLemmenize, workers, profile);
+  }
+
+  //Lemmenizes the batch with the profile of a particular index
+  public static HashMap<String, String> lemmenizeQueries(ArrayList<String> toLemmenize, int workers,
+                                                         NormalizationProfile queryProfile){
     HashMap<String, String> lemmenized = new HashMap<String, String>();
+    if (workers <= 1 || toLemmenize.size() <= 1){
+      for (String query : toLemmenize){
+        lemmenized.put(query, lemmenizeQuery(query, queryProfile));
+      }
+      return lemmenized;
+    }
 
-    for (String query : toLemmenize){
-      lemmenized.put(query, lemmenizeText(query));
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers, toLemmenize.size()));
+    try {
+      HashMap<String, Future<String>> pending = new HashMap<String, Future<String>>();
+      for (String query : toLemmenize){
+        if (!pending.containsKey(query))
+          pending.put(query, pool.submit(() -> lemmenizeQuery(query, queryProfile)));
+      }
+      for (String query : pending.keySet()){
+        try {
+          lemmenized.put(query, pending.get(query).get());
+        } catch (ExecutionException e) {
+          //Same as lemmenizing on this thread would have thrown
+          if (e.getCause() instanceof RuntimeException)
+            throw (RuntimeException) e.getCause();
+          throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    return lemmenized;
+  }
+
+  //Lemmenizes one query, remembering the result. Queries that only differ in their whitespace
+  //share an entry, the text itself is left alone since case changes the part of speech tags.
+  //Like the token cache's, the key starts with the LEMMENIZE and STEM settings, and the profile.
+  public static String lemmenizeQuery(String query){
+    return lemmenizeQuery(query, profile);
+  }
+
+  //Lemmenizes with the profile of a particular index, e.g. the one a BatchSearcher searches
+  public static String lemmenizeQuery(String query, NormalizationProfile queryProfile){
+    long start = System.nanoTime();
+    String text = query.trim().replaceAll("\\s+", " ");
+    String key = settingsKey() + queryProfile.name() + '\t' + text;
+    String lemmenized = queryCache.get(key);
+    if (lemmenized == null){
+      long computeStart = System.nanoTime();
+      lemmenized = lemmenizeText(text, queryProfile.getAnalyzer());
+      queryCache.put(key, lemmenized, System.nanoTime() - computeStart);
     }
+    queryLemmenizeTimer.record(System.nanoTime() - start);
     return lemmenized;
   }
 
-  private static String removeStopWords(ArrayList<String> toRemoveFrom){
-    String finalString = "";
+  static String removeStopWords(ArrayList<String> toRemoveFrom){
+    StringBuilder finalString = builders.get();
+    finalString.setLength(0);
     int stopWordCount = 0;
     for (String testString : toRemoveFrom){
-      if (toRemoveFrom.size() - 4 > stopWordCount && Arrays.binarySearch(STOPWORDS,testString) >= 0) {
-        //Skip over stop words unless we have less than 4 words in toRemoveFrom
+      if (isRemovableStopWord(testString, toRemoveFrom.size(), stopWordCount)) {
         stopWordCount++;
         continue;
       }
 
-      finalString += " " + testString;
+      finalString.append(' ').append(testString);
+    }
+    return finalString.toString();
+  }
+
+  //Stop words are skipped unless that would leave fewer than 4 words out of tokenCount
+  static boolean isRemovableStopWord(String token, int tokenCount, int stopWordsRemoved){
+    return tokenCount - 4 > stopWordsRemoved && stopWordSet.contains(token);
+  }
+
+  //Same as Pattern.matches("\\p{Punct}+", token): one or more ASCII punctuation characters
+  static boolean isPunctuation(CharSequence token){
+    if (token.length() == 0)
+      return false;
+    for (int i = 0; i < token.length(); i++){
+      char c = token.charAt(i);
+      if (c >= 128 || !PUNCTUATION[c])
+        return false;
+    }
+    return true;
+  }
+
+  private static boolean[] punctuationTable(){
+    boolean[] table = new boolean[128];
+    for (char c : "!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~".toCharArray()){
+      table[c] = true;
     }
-    return finalString;
+    return table;
   }
 }
@@ -0,0 +1,227 @@
+package CSc483;
+
+/**
+ * TitleDictionary class
+ * The titles of one index segment, in a single file that is memory mapped instead of read onto the
+ * heap, so rendering a query's top documents needs neither I/O nor a String per article.
+ * The file is a table of offsets followed by every title's UTF-8 bytes, in document order:
+ *   int magic, int documents, int[documents + 1] offsets (from the start of the bytes), bytes
+ * The title of a document is then found with two reads of the offset table, and only the titles
+ * that are actually returned are decoded into Strings.
+ * Lucene segments never change once written, so each segment's dictionary is built once, right
+ * after indexing (see build), and named after the segment's unique id. Documents deleted later keep
+ * their numbers, so the dictionary stays right for as long as the segment exists. Once a segment
+ * has been merged away the next build deletes its dictionary, but only when no commit of the index
+ * still lists the segment and no open reader of this process has mapped it. Another process that
+ * has it mapped keeps its mapping where files can be deleted while open; where they can't, the
+ * delete fails and is tried again by a later build. Files still being written (*.tmp) and files
+ * that aren't dictionaries are left alone.
+ * The dictionaries are kept in a watson-titles directory inside the index (or each shard's) directory.
+ * A segment without one (an index built before dictionaries, or a commit that was picked up by a
+ * refresh before the parse finished) has its titles read from the docid doc values as before.
+ */
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.util.StringHelper;
+
+public class TitleDictionary {
+
+  public static final String dirName = "watson-titles";
+  private static final String suffix = ".titles";
+  private static final int magic = 0x57544431; //"WTD1"
+
+  //Segment core -> the dictionary mapped for it, until the core is closed. build() keeps these.
+  private static final Map<Object, Path> inUse = new ConcurrentHashMap<Object, Path>();
+
+  private final ByteBuffer buffer; //Only ever read with absolute gets, so it's shared by every thread
+  private final int documents;
+  private final int bytesStart;
+
+  private TitleDictionary(ByteBuffer buffer){
+    this.buffer = buffer;
+    this.documents = buffer.getInt(4);
+    this.bytesStart = 8 + 4 * (documents + 1);
+  }
+
+  //The title of a document of the segment, by its number within the segment
+  public String getTitle(int doc){
+    int start = buffer.getInt(8 + 4 * doc);
+    int end = buffer.getInt(12 + 4 * doc);
+    byte[] title = new byte[end - start];
+    ByteBuffer view = buffer.duplicate();
+    view.position(bytesStart + start);
+    view.get(title);
+    return new String(title, StandardCharsets.UTF_8);
+  }
+
+  public int size(){
+    return this.documents;
+  }
+
+  //Maps the dictionary of a segment, null if it hasn't been built (or the leaf isn't a segment on disk)
+  public static TitleDictionary open(LeafReader leaf) throws IOException {
+    Path file = pathOf(leaf);
+    if (file == null || !Files.exists(file))
+      return null;
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } //The mapping outlives the channel
+    if (buffer.capacity() < 8 || buffer.getInt(0) != magic || buffer.getInt(4) != leaf.maxDoc())
+      return null; //Not a dictionary of this segment, search without it
+    IndexReader.CacheHelper core = leaf.getCoreCacheHelper();
+    if (core != null && inUse.putIfAbsent(core.getKey(), file) == null)
+      core.addClosedListener(key -> inUse.remove(key));
+    return new TitleDictionary(buffer);
+  }
+
+  //One dictionary per leaf of index, null for the leaves that don't have one
+  public static TitleDictionary[] openAll(IndexReader index){
+    TitleDictionary[] dictionaries = new TitleDictionary[index.leaves().size()];
+    for (LeafReaderContext leaf : index.leaves()){
+      try {
+        dictionaries[leaf.ord] = open(leaf.reader());
+      } catch (IOException e) {
+        e.printStackTrace();
+        System.err.println("Error: A title dictionary could not be mapped, its titles will be read from the index.");
+      }
+    }
+    return dictionaries;
+  }
+
+  //Writes the dictionary of every segment of index that doesn't have one yet, and deletes the
+  //dictionaries of segments that nothing refers to any more.
+  public static void build(IndexReader index) throws IOException {
+    Set<Path> current = new HashSet<Path>();
+    Map<Path, Directory> directories = new HashMap<Path, Directory>(); //Dictionary directory -> its index
+    for (LeafReaderContext leaf : index.leaves()){
+      Path file = pathOf(leaf.reader());
+      if (file == null)
+        continue;
+      current.add(file);
+      directories.put(file.getParent(), ((SegmentReader) leaf.reader()).getSegmentInfo().info.dir);
+      if (!Files.exists(file))
+        write(leaf.reader(), file);
+    }
+    for (Map.Entry<Path, Directory> directory : directories.entrySet()){
+      Set<String> referenced = committedSegments(directory.getValue());
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(directory.getKey(), "*" + suffix)) {
+        for (Path file : files){
+          String id = file.getFileName().toString();
+          id = id.substring(0, id.length() - suffix.length());
+          if (current.contains(file) || referenced.contains(id) || inUse.containsValue(file))
+            continue;
+          try {
+            Files.delete(file);
+          } catch (IOException e) {
+            //Still mapped by another process on a system that won't delete open files, next time
+          }
+        }
+      }
+    }
+  }
+
+  //The ids of every segment some commit of the index still lists
+  private static Set<String> committedSegments(Directory directory) throws IOException {
+    Set<String> ids = new HashSet<String>();
+    for (IndexCommit commit : DirectoryReader.listCommits(directory)){
+      for (SegmentCommitInfo segment : SegmentInfos.readCommit(directory, commit.getSegmentsFileName())){
+        ids.add(StringHelper.idToString(segment.info.getId()));
+      }
+    }
+    return ids;
+  }
+
+  //Two passes over the titles, the first for the offsets and the second for the bytes, so the
+  //titles are never all on the heap at once
+  private static void write(LeafReader leaf, Path file) throws IOException {
+    int documents = leaf.maxDoc();
+    int[] offsets = new int[documents + 1];
+    SortedDocValues titles = leaf.getSortedDocValues("docid");
+    long length = 0;
+    for (int doc = 0; doc < documents; doc++){
+      length += titleOf(leaf, titles, doc).length;
+      if (length > Integer.MAX_VALUE - offsets.length * 4L)
+        return; //Too big to map as one buffer, this segment keeps reading its doc values
+      offsets[doc + 1] = (int) length;
+    }
+
+    Files.createDirectories(file.getParent());
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+      out.writeInt(magic);
+      out.writeInt(documents);
+      for (int offset : offsets){
+        out.writeInt(offset);
+      }
+      titles = leaf.getSortedDocValues("docid");
+      for (int doc = 0; doc < documents; doc++){
+        out.write(titleOf(leaf, titles, doc));
+      }
+    }
+    try {
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  //The UTF-8 title of a document, titles are iterated in document order
+  private static byte[] titleOf(LeafReader leaf, SortedDocValues titles, int doc) throws IOException {
+    String title = "";
+    if (titles != null){
+      if (titles.advanceExact(doc))
+        title = titles.binaryValue().utf8ToString();
+    } else {
+      //An index from before titles were doc values
+      String stored = leaf.document(doc).get("docid");
+      title = stored == null ? "" : stored;
+    }
+    return ScoredDocument.stripBrackets(title).getBytes(StandardCharsets.UTF_8);
+  }
+
+  //watson-titles/<segment id>.titles in the directory the segment is in
+  static Path pathOf(LeafReader leaf){
+    if (!(leaf instanceof SegmentReader))
+      return null;
+    SegmentReader segment = (SegmentReader) leaf;
+    Directory directory = FilterDirectory.unwrap(segment.getSegmentInfo().info.dir);
+    if (!(directory instanceof FSDirectory))
+      return null;
+    String id = StringHelper.idToString(segment.getSegmentInfo().info.getId());
+    return ((FSDirectory) directory).getDirectory().resolve(dirName).resolve(id + suffix);
+  }
+
+}
@@ -0,0 +1,39 @@
+package CSc483;
+
+/**
+ * TokenCache class
+ * A bounded, thread-safe map from a token to its normalized (lemmenized and/or stemmed) form.
+ * Wikipedia text follows Zipf's law, so a few thousand surface forms make up most tokens, and
+ * remembering their normalized form skips the lemma lookup and the stemmer for them.
+ * It is a SegmentedCache, so threads parsing different files rarely wait on each other, and the
+ * least recently used token is evicted once a segment is full.
+ * A maximum size of 0 turns the cache off.
+ */
+
+public class TokenCache extends SegmentedCache<String> {
+
+  public TokenCache(int maxSize){
+    super(maxSize);
+  }
+
+  //Returns the cached value, or null (and counts a miss) if the token isn't cached
+  public String get(String token){
+    return lookup(token);
+  }
+
+  public void put(String token, String value){
+    store(token, value);
+  }
+
+  public void clear(){
+    clearEntries();
+    resetCounts();
+  }
+
+  @Override
+  public String toString(){
+    return String.format("Token cache: %d hits, %d misses (%.1f%% hit rate), %d of %d entries used.",
+                         getHits(), getMisses(), getHitRate() * 100, size(), getMaxSize());
+  }
+
+}
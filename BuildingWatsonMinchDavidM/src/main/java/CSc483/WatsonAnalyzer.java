@@ -0,0 +1,25 @@
+package CSc483;
+
+/**
+ * WatsonAnalyzer class
+ * The one Lucene Analyzer used for Wikipedia articles at index time and for Jeopardy clues at
+ * query time, so both sides are always normalized the same way. A LemmenizingTokenizer does the
+ * CoreNLP tokenizing, lemmenizing, stemming and stop word removal in one pass, and the terms are
+ * then lowercased (as StandardAnalyzer used to do on top of the lemmenized text).
+ */
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+
+public class WatsonAnalyzer extends Analyzer {
+
+  @Override
+  protected TokenStreamComponents createComponents(String fieldName){
+    Tokenizer tokenizer = new LemmenizingTokenizer();
+    TokenStream stream = new LowerCaseFilter(tokenizer);
+    return new TokenStreamComponents(tokenizer, stream);
+  }
+
+}
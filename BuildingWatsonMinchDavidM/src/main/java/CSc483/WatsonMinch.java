@@ -35,11 +35,69 @@ package CSc483;
  * mvn compile
  * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch"  
  * ^^ This runs the default settings: Loads the Lucene index, runs all the Jeopardy queries, and prints 
- *    the results to the terminal and evaluates the accuracy. 
+ *    the results to the terminal and evaluates the accuracy. No index comes with the project, so parse once
+ *    with -p first. Indexes written by Lucene 7 (before the 8.x upgrade) still load.
  * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-p"
  * ^^ The -p flag indicates that the Wikipedia pages need to be parsed. Instead of loading the Lucene index,
  *    the Wikipedia pages are sought out and parsed. This takes a long time, and creates a Lucene index that
- *    can be loaded for the next run.
+ *    can be loaded for the next run. Parsing is incremental: files that are already in the index unchanged are
+ *    skipped, changed files have their articles replaced, files that were deleted or renamed have their articles
+ *    deleted, and an interrupted parse picks up where it stopped.
+ * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-p -f"
+ * ^^ The -f flag forces a full rebuild: the index is recreated from every Wikipedia file, indexed or not.
+ * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-p -f -b -r 512 -m 4 -o 1"
+ * ^^ The -b flag parses in bulk load mode: a 256 MB indexing buffer, merges tuned for one large write, and no
+ *    compound segment files. Instead of after every file, the index is committed after every 1024 MB of Wikipedia
+ *    files, or after the number of MB given (e.g. -b 4096), and 0 commits only once the parse is done. An interrupted
+ *    bulk load resumes from its last commit, so it parses those files again. -r sets the indexing buffer in MB
+ *    (16 unless -b is given), -m sets how many threads merge segments in the background, and -o force merges the
+ *    index into at most that many segments when parsing is done, which makes searching faster. "-p -o 1" on an
+ *    up to date index just merges it.
+ * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-p -i 4"
+ * ^^ The -i flag splits the index into the given number of shards, each its own Lucene index in a shard-N folder
+ *    of the index directory. Articles are spread over the shards by a hash of their title, each shard has its own
+ *    IndexWriter, and every query searches all the shards in parallel with scores that match an unsplit index.
+ *    Parsing with another number of shards rebuilds the index. Loading finds the shards on its own.
+ * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-p -z" < enwiki-20140602-pages.txt.bz2
+ * ^^ The -z flag parses a Wikipedia dump piped in on standard input along with the files, plain or compressed with gzip
+ *    or bzip2. The Wikipedia files themselves may be kept compressed too, named like enwiki-20140602-1.txt.gz or
+ *    enwiki-20140602-1.txt.bz2. Multistream bzip2 files are decompressed on every core while they are parsed.
+ *    Piped in articles replace any already indexed with the same title, and are parsed again by every -p -z run.
+ * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-p -t 8"
+ * ^^ The -t flag sets how many worker threads parse Wikipedia files at the same time. Each worker parses whole
+ *    files and adds them to the shared index. The same number of threads lemmenize the queries. Defaults to the
+ *    number of available cores.
+ * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-p -l 1048576"
+ * ^^ The -l flag sets the longest article body, in characters, that is kept in memory and indexed while parsing.
+ *    Text past the limit is dropped. Defaults to 0, which indexes every article in full.
+ * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-p -c 100000"
+ * ^^ The -c flag sets how many tokens' lemmenized/stemmed forms are remembered so common words aren't normalized
+ *    over and over. 0 turns the cache off. Defaults to 100000. The cache hit rate is printed after parsing.
+ * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-k 10000 -a 3600"
+ * ^^ The -k flag sets how many queries are remembered, both as lemmenized text and as their top 10 documents, so a
+ *    query asked again is answered without lemmenizing or searching. 0 turns the caches off. Defaults to 10000.
+ *    -a sets how many seconds a remembered query is kept (3600 by default, 0 keeps it until it's evicted). The
+ *    remembered documents are dropped whenever the index changes. Hit rates and time saved are printed at the end.
+ * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-e metrics.prom"
+ * ^^ The -e flag exports timings of every stage (model load, query lemmenizing, query building, searching,
+ *    title lookups, evaluation, parsing) and the parse counters to the given file when the run ends, as
+ *    JSON if the file name ends in .json and in the Prometheus text format otherwise. A server started with -s
+ *    writes the file when it is stopped, and always serves the same metrics at http://127.0.0.1:PORT/metrics.
+ * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-p -n fast"
+ * ^^ The -n flag picks how text is normalized when the Wikipedia pages are parsed: "full" (the default) runs
+ *    CoreNLP to lemmenize and then stems, "fast" skips CoreNLP and only tokenizes, removes stop words and stems,
+ *    which is much quicker. The profile is saved in the index, and queries always use the one the loaded index
+ *    was built with. Parsing into an index built with the other profile rebuilds it. An index parsed before profiles
+ *    were recorded holds terms today's queries don't all match: it still loads, with a warning, and -p rebuilds it.
+ * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-w"
+ * ^^ The -w flag stops counting how many documents match a query, so documents that can't reach the top 10 are
+ *    skipped (block-max WAND) instead of scored. The top 10 are the same. It's faster when a few rare terms decide
+ *    the ranking, and slower for long queries of common words, which are scored faster all at once (the default).
+ * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-g 50 -d 50"
+ * ^^ The -g flag reranks the given number (50 if none is given) of best documents by BM25 before the top 10 are picked. Each one is scored
+ *    again on how many of the Jeopardy category's words it has, how many of its title's words are in the clue (a
+ *    clue rarely names its response), and how close together the clue's words are in it. -d sets how many
+ *    milliseconds a query's rerank may take (50 by default); one that takes longer keeps the BM25 order.
  * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-v"
  * ^^ The -v flag indicates that verbose output should be given. That means that the top 10 documents and their scores
  *    will be printed after every query. This flag can be given at the same time as -p.
@@ -49,6 +107,20 @@ package CSc483;
  *    parse the Wikipedia pages as well, the -p flag must come before the -q flag, because every term after -q will
  *    be considered part of the query. With the -q flag, the 10 documents and their scores are already printed,
  *    so the verbose flag if present is redundant and should not be included.
+ * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-s 8483"
+ * ^^ The -s flag starts Watson as a server on the given port (8483 if none is given). The index and NLP pipeline
+ *    stay loaded, and queries are answered at http://127.0.0.1:PORT/query?q=QUERY+TERMS with the top 10 documents
+ *    as JSON. The server only listens on the loopback interface. It runs until the process is stopped.
+ * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-s 8483 -u 10"
+ * ^^ The -u flag sets how many seconds the server waits between checks for a newer commit of the index (10 by
+ *    default, 0 never checks). Parsing into the same index from another process, even one that is still running,
+ *    shows up in the server's results without a restart. Queries already running finish on the index they started on.
+ * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-x similarity=bm25,classic,lm;rerank=0,50"
+ * ^^ The -x flag evaluates every combination of the given settings against the Jeopardy questions in one run, with
+ *    one loaded index and NLP pipeline, and prints a table of each one's P@1, P@10, Hit@10 (right response in the top 10),
+ *    mean reciprocal rank and search latency percentiles. The settings are similarity (bm25, bm25:k1:b, classic or lm),
+ *    categories (yes or no), rerank (a depth, 0 for none) and wand (no or yes), see ConfigurationSweep. Without a grid
+ *    "similarity=bm25,classic,lm;categories=yes,no" is evaluated. Configurations that rerank get the -d time budget.
  * mvn exec:java -Dexec.mainClass="CSc483.WatsonMinch" -Dexec.args="-?"
  * ^^ The -? flag displays this usage information. If -? is present, then no operations will be attempted.
  *
@@ -60,6 +132,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Scanner;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import java.io.File;
 import java.io.IOException;
@@ -68,7 +141,6 @@ import java.nio.file.Paths;
 
 import java.lang.ClassLoader;
 
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
@@ -76,8 +148,6 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 
 public class WatsonMinch {
 
@@ -95,8 +165,30 @@ public class WatsonMinch {
 
     boolean verbose    = parseArgs(args, "-v");
     boolean parse      = parseArgs(args, "-p");
+    boolean rebuild    = parseArgs(args, "-f");
     boolean queryGiven = parseArgs(args, "-q");
+    boolean serve      = parseArgs(args, "-s");
+    boolean sweep      = parseArgs(args, "-x");
     String  query      = parseArgs(args);
+    int     workers    = parseArgs(args, "-t", Runtime.getRuntime().availableProcessors());
+    String  metrics    = parseArgs(args, "-e", (String) null);
+    String  profile    = parseArgs(args, "-n", NormalizationProfile.FULL.name());
+    WikipediaParser.MAX_ARTICLE_CHARS = parseArgs(args, "-l", WikipediaParser.MAX_ARTICLE_CHARS);
+    WikipediaParser.BULK_LOAD = parseArgs(args, "-b");
+    WikipediaParser.CHECKPOINT_MB = parseArgs(args, "-b", WikipediaParser.BULK_CHECKPOINT_MB);
+    WikipediaParser.RAM_BUFFER_MB = parseArgs(args, "-r", WikipediaParser.BULK_LOAD ? WikipediaParser.BULK_RAM_BUFFER_MB
+                                                                                   : WikipediaParser.RAM_BUFFER_MB);
+    WikipediaParser.MERGE_THREADS = parseArgs(args, "-m", WikipediaParser.MERGE_THREADS);
+    WikipediaParser.FORCE_MERGE_SEGMENTS = parseArgs(args, "-o", WikipediaParser.FORCE_MERGE_SEGMENTS);
+    WikipediaParser.SHARDS = parseArgs(args, "-i", WikipediaParser.SHARDS);
+    TextLemmenizer.setTokenCacheSize(parseArgs(args, "-c", TextLemmenizer.DEFAULT_TOKEN_CACHE_SIZE));
+    int queryCacheSize = parseArgs(args, "-k", QueryCache.DEFAULT_SIZE);
+    int queryCacheTtl  = parseArgs(args, "-a", QueryCache.DEFAULT_TTL_SECONDS);
+    TextLemmenizer.setQueryCache(queryCacheSize, queryCacheTtl);
+    if (parseArgs(args, "-w"))
+      BatchSearcher.TOTAL_HITS_THRESHOLD = BatchSearcher.hitsPerPage;
+    int rerankDepth    = parseArgs(args, "-g") ? parseArgs(args, "-g", FeatureReranker.DEFAULT_DEPTH) : 0;
+    int rerankBudget   = parseArgs(args, "-d", FeatureReranker.DEFAULT_BUDGET_MS);
 
     if (queryGiven && query.equals("")){
       System.err.println("Error: Query flag given, but no query was found.");
@@ -106,20 +198,47 @@ public class WatsonMinch {
       //Always print the top 10 documents if there's only 1 query
       verbose = true;
     }
+    List<ConfigurationSweep.Configuration> grid = null;
+    if (sweep){
+      try {
+        grid = ConfigurationSweep.parseGrid(parseArgs(args, "-x", ConfigurationSweep.defaultGrid));
+      } catch (IllegalArgumentException e) {
+        System.err.println("Error: " + e.getMessage());
+        displayUsage(1);
+      }
+    }
+    if (NormalizationProfile.fromName(profile) == null){
+      System.err.println("Error: -n expects full or fast, but got '" + profile + "'.");
+      displayUsage(1);
+    }
 
     IndexReader wikipediaIndex;
 
     WikipediaParser parser = new WikipediaParser();
+    parser.setResultCache(queryCacheSize, queryCacheTtl);
+    if (rerankDepth > 0)
+      parser.setReranker(new FeatureReranker(rerankBudget), rerankDepth);
+    NormalizationProfile queryProfile = NormalizationProfile.fromName(profile);
     if (parse) {
       //Then we need to parse wikipedia files
+      TextLemmenizer.setProfile(queryProfile);
+      warmUp(queryProfile);
       System.out.println("Initializing parsing of Wikipedia files. This may take a while.");
-      parser.parse();
+      if (parseArgs(args, "-z"))
+        parser.setInput(System.in, "stdin");
+      parser.parse(workers, rebuild);
       wikipediaIndex = parser.getIndex();
 
     } else {
-      //Then we need to load Lucene indices
+      //Then we need to load Lucene indices, which decide the profile queries are analyzed with
       wikipediaIndex = loadLuceneIndex();
       parser.setLuceneIndex(wikipediaIndex);
+      try {
+        queryProfile = NormalizationProfile.of(wikipediaIndex);
+      } catch (IOException e) {
+        queryProfile = NormalizationProfile.FULL; //setLuceneIndex() has said so already
+      }
+      warmUp(queryProfile);
     }
 
     if (wikipediaIndex == null || wikipediaIndex.numDocs() < 1){
@@ -129,6 +248,35 @@ public class WatsonMinch {
         
     System.out.println("Watson V0.2 has loaded.\n");
 
+    if (sweep) {
+      //Every configuration is evaluated on the index and pipeline that are loaded now
+      runSweep(wikipediaIndex, grid, rerankBudget, workers);
+      writeMetrics(metrics);
+      System.out.println("Watson V0.2 is powering down.");
+      return;
+    }
+
+    if (serve) {
+      //Keep the index and pipeline resident and answer queries until the process is stopped
+      //Pick up new commits, e.g. from "-p" run in another process, while serving
+      parser.setRefreshInterval(1000L * parseArgs(args, "-u", WatsonServer.defaultRefreshSeconds));
+      WatsonServer server = new WatsonServer(parser);
+      try {
+        server.start(parseArgs(args, "-s", WatsonServer.defaultPort));
+      } catch (IOException e) {
+        e.printStackTrace();
+        System.err.println("Error: The Watson server could not be started.");
+        System.exit(4);
+      }
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        server.stop();
+        System.out.println(TextLemmenizer.getQueryCache());
+        System.out.println(parser.getResultCache());
+        writeMetrics(metrics);
+      }));
+      return;
+    }
+
     // Load in query(/ies)
 
     ArrayList<String> queries = new ArrayList<String>();
@@ -140,10 +288,27 @@ public class WatsonMinch {
     }
 
     //parse, lemmenize, and tokenize query(/ies)
-    HashMap<String, String> lemmenizedQueries = TextLemmenizer.lemmenizeQueries(queries); 
+    long lemmenizeStart = System.nanoTime();
+    HashMap<String, String> lemmenizedQueries = TextLemmenizer.lemmenizeQueries(queries, workers, queryProfile);
+    System.out.printf("Lemmenized %d queries in %.3f s with %d worker(s).%n", queries.size(),
+                      (System.nanoTime() - lemmenizeStart) / 1e9, Math.max(1, workers));
     
+    //The reranker weighs each query's category on its own
+    HashMap<String, String> lemmenizedCategories = new HashMap<String, String>();
+    if (rerankDepth > 0 && !queryGiven){
+      HashMap<String, String> categories = new HashMap<String, String>();
+      loadInQuestionKey(categories);
+      HashMap<String, String> lemmenized = TextLemmenizer.lemmenizeQueries(new ArrayList<String>(categories.values()),
+                                                                           workers, queryProfile);
+      for (String answer : queries){
+        lemmenizedCategories.put(answer, lemmenized.getOrDefault(categories.get(answer), ""));
+      }
+    }
+
     //run query, score documents
-    HashMap<String, ArrayList<ScoredDocument>> scores = parser.score(lemmenizedQueries);
+    long scoreStart = System.nanoTime();
+    HashMap<String, ArrayList<ScoredDocument>> scores = parser.score(lemmenizedQueries, lemmenizedCategories);
+    double scoreSeconds = (System.nanoTime() - scoreStart) / 1e9;
 
     // Give verbose output if requested
 
@@ -156,12 +321,13 @@ public class WatsonMinch {
         System.out.println("Original query: " + answer);
         String lemmenized = lemmenizedQueries.get(answer);
         System.out.println("Tokenized query: " + lemmenized);
-        for (ScoredDocument document : scores.get(lemmenized)){
+        for (ScoredDocument document : scores.get(answer)){
           System.out.println("Potential Question: " + document.getDocumentID() + ", with score " + document.getScore());
         }
       }
     }
 
+    long evaluationStart = System.nanoTime();
     HashMap<String, ArrayList<String>> questionKey = new HashMap<String, ArrayList<String>>();
     if (!queryGiven) {
       //load in question key
@@ -176,7 +342,9 @@ public class WatsonMinch {
       // Print answer
       System.out.println("And the answer is:");
       System.out.println("> " + answer);
-      String question = scores.get(lemmenizedQueries.get(answer)).get(0).getDocumentID();
+      ArrayList<ScoredDocument> results = scores.get(answer);
+      //A query whose terms are all stop words or unknown finds nothing
+      String question = results.isEmpty() ? "" : results.get(0).getDocumentID();
       //question = question.substring(2, question.length() - 2);
       System.out.println("What is... " + question + "?");
     
@@ -194,8 +362,8 @@ public class WatsonMinch {
             System.out.println(response);
           }
 
-          for (int i = 1; i < 10; i++){
-            String lessQuestion = scores.get(lemmenizedQueries.get(answer)).get(i).getDocumentID();
+          for (int i = 1; i < results.size(); i++){
+            String lessQuestion = results.get(i).getDocumentID();
             if (isCorrectQuestion(lessQuestion, questionKey.get(answer))){
               System.out.println("However, the document ranked #" + i + " did have the answer!");
               questionsInTop10++;
@@ -218,6 +386,14 @@ public class WatsonMinch {
       }
     }
 
+    Metrics.timer("watson_evaluation_seconds", "Time to judge every answer against the question key")
+           .record(System.nanoTime() - evaluationStart);
+
+    System.out.printf("Scored %d queries in %.3f s (%.1f queries/second).%n", queries.size(), scoreSeconds, queries.size() / scoreSeconds);
+    System.out.println(TextLemmenizer.getQueryCache());
+    System.out.println(parser.getResultCache());
+
+    writeMetrics(metrics);
     System.out.println("Watson V0.2 is powering down.");
 
         
@@ -247,6 +423,82 @@ public class WatsonMinch {
     return false;
   }
 
+  public static int parseArgs(String[] args, String param, int defaultValue){
+    //Numeric flags take their value from the next argument, e.g. -t 8
+    for (int i = 0; i < args.length - 1; i++){
+      if (args[i].equals("-q"))
+        break; //Everything after -q is query text
+      if (args[i].indexOf(param) == 0){
+        if (args[i + 1].startsWith("-"))
+          break; //The flag was given without a value
+        try {
+          return Integer.parseInt(args[i + 1]);
+        } catch (NumberFormatException e) {
+          System.err.println("Error: " + param + " expects a number, but got '" + args[i + 1] + "'.");
+          displayUsage(1);
+        }
+      }
+    }
+    return defaultValue;
+  }
+
+  public static String parseArgs(String[] args, String param, String defaultValue){
+    //Text flags take their value from the next argument, e.g. -e metrics.json
+    for (int i = 0; i < args.length - 1; i++){
+      if (args[i].equals("-q"))
+        break; //Everything after -q is query text
+      if (args[i].indexOf(param) == 0){
+        if (args[i + 1].startsWith("-"))
+          break; //The flag was given without a value
+        return args[i + 1];
+      }
+    }
+    return defaultValue;
+  }
+
+  //Evaluates every configuration against the Jeopardy questions and prints how each one did
+  public static void runSweep(IndexReader index, List<ConfigurationSweep.Configuration> grid, int rerankBudget, int workers){
+    HashMap<String, String> categories = new HashMap<String, String>();
+    HashMap<String, ArrayList<String>> questionKey = loadInQuestionKey(categories);
+    Reranker reranker = null;
+    for (ConfigurationSweep.Configuration configuration : grid){
+      if (configuration.rerankDepth > 0 && reranker == null)
+        reranker = new FeatureReranker(rerankBudget);
+    }
+    ExecutorService pool = BatchSearcher.newPool("watson-sweep");
+    ConfigurationSweep configurationSweep = new ConfigurationSweep(index, pool, reranker, workers);
+    long start = System.nanoTime();
+    try {
+      List<ConfigurationSweep.Result> results = configurationSweep.evaluate(grid, questionKey, categories);
+      System.out.printf("Evaluated %d configuration(s) on %d questions in %.1f s.%n", grid.size(), questionKey.size(),
+                        (System.nanoTime() - start) / 1e9);
+      System.out.print(ConfigurationSweep.toTable(results));
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.err.println("Error: The configurations could not be evaluated.");
+    }
+    pool.shutdown();
+  }
+
+  //Loads the models of profile up front, so the first query or article doesn't wait
+  public static void warmUp(NormalizationProfile profile){
+    long warmUpTime = TextLemmenizer.warmUp(profile);
+    System.out.println(profile + " normalization profile warmed up in " + warmUpTime + " ms.");
+  }
+
+  //Exports every metric to file, if one was asked for
+  public static void writeMetrics(String file){
+    if (file == null)
+      return;
+    try {
+      Metrics.write(Paths.get(file));
+      System.out.println("Metrics written to " + file + ".");
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.err.println("Error: The metrics could not be written to " + file + ".");
+    }
+  }
+
   public static void displayUsage(int exitCode){
 
     System.out.println();
@@ -254,11 +506,69 @@ public class WatsonMinch {
     System.out.println("mvn compile");
     System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\"");
     System.out.println("^^ This runs the default settings: Loads the Lucene index, runs all the Jeopardy queries, and prints");
-    System.out.println("   the results to the terminal and evaluates the accuracy.");
+    System.out.println("   the results to the terminal and evaluates the accuracy. No index comes with the project, so parse once");
+    System.out.println("   with -p first. Indexes written by Lucene 7 (before the 8.x upgrade) still load.");
     System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-p\"");
     System.out.println("^^ The -p flag indicates that the Wikipedia pages need to be parsed. Instead of loading the Lucene index,");
     System.out.println("   the Wikipedia pages are sought out and parsed. This takes a long time, and creates a Lucene index that");
-    System.out.println("   can be loaded for the next run.");
+    System.out.println("   can be loaded for the next run. Parsing is incremental: files that are already in the index unchanged are");
+    System.out.println("   skipped, changed files have their articles replaced, files that were deleted or renamed have their articles");
+    System.out.println("   deleted, and an interrupted parse picks up where it stopped.");
+    System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-p -f\"");
+    System.out.println("^^ The -f flag forces a full rebuild: the index is recreated from every Wikipedia file, indexed or not.");
+    System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-p -f -b -r 512 -m 4 -o 1\"");
+    System.out.println("^^ The -b flag parses in bulk load mode: a 256 MB indexing buffer, merges tuned for one large write, and no");
+    System.out.println("   compound segment files. Instead of after every file, the index is committed after every 1024 MB of Wikipedia");
+    System.out.println("   files, or after the number of MB given (e.g. -b 4096), and 0 commits only once the parse is done. An interrupted");
+    System.out.println("   bulk load resumes from its last commit, so it parses those files again. -r sets the indexing buffer in MB");
+    System.out.println("   (16 unless -b is given), -m sets how many threads merge segments in the background, and -o force merges the");
+    System.out.println("   index into at most that many segments when parsing is done, which makes searching faster. \"-p -o 1\" on an");
+    System.out.println("   up to date index just merges it.");
+    System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-p -i 4\"");
+    System.out.println("^^ The -i flag splits the index into the given number of shards, each its own Lucene index in a shard-N folder");
+    System.out.println("   of the index directory. Articles are spread over the shards by a hash of their title, each shard has its own");
+    System.out.println("   IndexWriter, and every query searches all the shards in parallel with scores that match an unsplit index.");
+    System.out.println("   Parsing with another number of shards rebuilds the index. Loading finds the shards on its own.");
+    System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-p -z\" < enwiki-20140602-pages.txt.bz2");
+    System.out.println("^^ The -z flag parses a Wikipedia dump piped in on standard input along with the files, plain or compressed with gzip");
+    System.out.println("   or bzip2. The Wikipedia files themselves may be kept compressed too, named like enwiki-20140602-1.txt.gz or");
+    System.out.println("   enwiki-20140602-1.txt.bz2. Multistream bzip2 files are decompressed on every core while they are parsed.");
+    System.out.println("   Piped in articles replace any already indexed with the same title, and are parsed again by every -p -z run.");
+    System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-p -t 8\"");
+    System.out.println("^^ The -t flag sets how many worker threads parse Wikipedia files at the same time. Each worker parses whole");
+    System.out.println("   files and adds them to the shared index. The same number of threads lemmenize the queries. Defaults to the");
+    System.out.println("   number of available cores.");
+    System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-p -l 1048576\"");
+    System.out.println("^^ The -l flag sets the longest article body, in characters, that is kept in memory and indexed while parsing.");
+    System.out.println("   Text past the limit is dropped. Defaults to 0, which indexes every article in full.");
+    System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-p -c 100000\"");
+    System.out.println("^^ The -c flag sets how many tokens' lemmenized/stemmed forms are remembered so common words aren't normalized");
+    System.out.println("   over and over. 0 turns the cache off. Defaults to 100000. The cache hit rate is printed after parsing.");
+    System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-k 10000 -a 3600\"");
+    System.out.println("^^ The -k flag sets how many queries are remembered, both as lemmenized text and as their top 10 documents, so a");
+    System.out.println("   query asked again is answered without lemmenizing or searching. 0 turns the caches off. Defaults to 10000.");
+    System.out.println("   -a sets how many seconds a remembered query is kept (3600 by default, 0 keeps it until it's evicted). The");
+    System.out.println("   remembered documents are dropped whenever the index changes. Hit rates and time saved are printed at the end.");
+    System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-e metrics.prom\"");
+    System.out.println("^^ The -e flag exports timings of every stage (model load, query lemmenizing, query building, searching,");
+    System.out.println("   title lookups, evaluation, parsing) and the parse counters to the given file when the run ends, as");
+    System.out.println("   JSON if the file name ends in .json and in the Prometheus text format otherwise. A server started with -s");
+    System.out.println("   writes the file when it is stopped, and always serves the same metrics at http://127.0.0.1:PORT/metrics.");
+    System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-p -n fast\"");
+    System.out.println("^^ The -n flag picks how text is normalized when the Wikipedia pages are parsed: \"full\" (the default) runs");
+    System.out.println("   CoreNLP to lemmenize and then stems, \"fast\" skips CoreNLP and only tokenizes, removes stop words and stems,");
+    System.out.println("   which is much quicker. The profile is saved in the index, and queries always use the one the loaded index");
+    System.out.println("   was built with. Parsing into an index built with the other profile rebuilds it. An index parsed before profiles");
+    System.out.println("   were recorded holds terms today's queries don't all match: it still loads, with a warning, and -p rebuilds it.");
+    System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-w\"");
+    System.out.println("^^ The -w flag stops counting how many documents match a query, so documents that can't reach the top 10 are");
+    System.out.println("   skipped (block-max WAND) instead of scored. The top 10 are the same. It's faster when a few rare terms decide");
+    System.out.println("   the ranking, and slower for long queries of common words, which are scored faster all at once (the default).");
+    System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-g 50 -d 50\"");
+    System.out.println("^^ The -g flag reranks the given number (50 if none is given) of best documents by BM25 before the top 10 are picked. Each one is scored");
+    System.out.println("   again on how many of the Jeopardy category's words it has, how many of its title's words are in the clue (a");
+    System.out.println("   clue rarely names its response), and how close together the clue's words are in it. -d sets how many");
+    System.out.println("   milliseconds a query's rerank may take (50 by default); one that takes longer keeps the BM25 order.");
     System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-v\"");
     System.out.println("^^ The -v flag indicates that verbose output should be given. That means that the top 10 documents and their scores");
     System.out.println("   will be printed after every query. This flag can be given at the same time as -p.");
@@ -268,6 +578,20 @@ public class WatsonMinch {
     System.out.println("   parse the Wikipedia pages as well, the -p flag must come before the -q flag, because every term after -q will");
     System.out.println("   be considered part of the query. With the -q flag, the 10 documents and their scores are already printed,");
     System.out.println("   so the verbose flag if present is redundant and should not be included.");
+    System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-s 8483\"");
+    System.out.println("^^ The -s flag starts Watson as a server on the given port (8483 if none is given). The index and NLP pipeline");
+    System.out.println("   stay loaded, and queries are answered at http://127.0.0.1:PORT/query?q=QUERY+TERMS with the top 10 documents");
+    System.out.println("   as JSON. The server only listens on the loopback interface. It runs until the process is stopped.");
+    System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-s 8483 -u 10\"");
+    System.out.println("^^ The -u flag sets how many seconds the server waits between checks for a newer commit of the index (10 by");
+    System.out.println("   default, 0 never checks). Parsing into the same index from another process, even one that is still running,");
+    System.out.println("   shows up in the server's results without a restart. Queries already running finish on the index they started on.");
+    System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-x similarity=bm25,classic,lm;rerank=0,50\"");
+    System.out.println("^^ The -x flag evaluates every combination of the given settings against the Jeopardy questions in one run, with");
+    System.out.println("   one loaded index and NLP pipeline, and prints a table of each one's P@1, P@10, Hit@10 (right response in the top 10),");
+    System.out.println("   mean reciprocal rank and search latency percentiles. The settings are similarity (bm25, bm25:k1:b, classic or lm),");
+    System.out.println("   categories (yes or no), rerank (a depth, 0 for none) and wand (no or yes), see ConfigurationSweep. Without a grid");
+    System.out.println("   \"similarity=bm25,classic,lm;categories=yes,no\" is evaluated. Configurations that rerank get the -d time budget.");
     System.out.println("mvn exec:java -Dexec.mainClass=\"CSc483.WatsonMinch\" -Dexec.args=\"-?\"");
     System.out.println("^^ The -? flag displays this usage information. If -? is present, then no operations will be attempted.");
 
@@ -303,6 +627,11 @@ public class WatsonMinch {
   //Note, the ArrayList<String> is the list of all possible questions (responses) for the answer (Jeopardy Clue).
   //This should be in the src/main/resources/questions.txt directory
   public static HashMap<String, ArrayList<String>> loadInQuestionKey(){
+    return loadInQuestionKey(null);
+  }
+
+  //Also fills categories (if not null) with the category of every query, for the reranker
+  public static HashMap<String, ArrayList<String>> loadInQuestionKey(HashMap<String, String> categories){
     HashMap<String, ArrayList<String>> questionKey = new HashMap<String, ArrayList<String>>();
 
     boolean USING_CATEGORIES = true;
@@ -334,6 +663,8 @@ public class WatsonMinch {
             questions.add(goodQuestion.trim());
           }
           questionKey.put(query, questions);
+          if (categories != null)
+            categories.put(query, category.trim());
         } else {
           //Verify that the line is blank.
           String blankLine = scanner.nextLine().trim();
@@ -361,8 +692,8 @@ public class WatsonMinch {
   public static IndexReader loadLuceneIndex() {
     //Note: IndexReader lets me implement tf-idf manually
     try{
-      Directory index = FSDirectory.open(Paths.get(luceneOutputDir));
-      IndexReader reader = DirectoryReader.open(index);
+      //Every shard, if the index was split into shards
+      IndexReader reader = ShardedReader.open(Paths.get(luceneOutputDir));
       return reader;
     } catch (IOException e) {
       e.printStackTrace(); //Main will take care of letting the user know
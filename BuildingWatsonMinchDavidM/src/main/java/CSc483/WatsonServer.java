@@ -0,0 +1,158 @@
+package CSc483;
+
+/**
+ * WatsonServer class
+ * This class keeps Watson running between queries. The Lucene index and the CoreNLP pipeline
+ * are loaded once, and queries are answered over HTTP on the loopback interface only, so
+ * no query pays for JVM startup or model loading after the first. New commits of the index are
+ * swapped in while serving (see BatchSearcherManager), so a re-index doesn't need a restart.
+ *
+ * GET /query?q=QUERY TERMS
+ * ^^ Lemmenizes the query, scores it, and returns the top 10 documents as JSON:
+ *    {"query":"...","lemmenized":"...","tookMs":1.2,"results":[{"documentID":"...","score":1.0}, ...]}
+ *    If the parser has a Reranker, a Jeopardy category can be given with &category=CATEGORY.
+ * GET /metrics
+ * ^^ Returns every timer, counter and gauge in Metrics in the Prometheus text format, or as JSON
+ *    with /metrics?format=json.
+ */
+
+import java.util.ArrayList;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class WatsonServer {
+
+  public static final int defaultPort = 8483;
+  public static final int defaultRefreshSeconds = 10; //How often the index is checked for new commits
+
+  WikipediaParser parser;
+
+  private static final Metrics.Timer requestTimer = Metrics.timer("watson_server_query_seconds",
+      "Time to answer one /query request, lemmenizing and scoring included");
+  HttpServer server;
+
+  public WatsonServer(WikipediaParser parser){
+    this.parser = parser;
+  }
+
+  //Binds to the loopback address only, so the server can't be reached from other machines
+  public void start(int port) throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext("/query", this::handleQuery);
+    server.createContext("/metrics", this::handleMetrics);
+    server.setExecutor(BatchSearcher.newPool("watson-server"));
+    server.start();
+    System.out.println("Watson V0.2 is listening on http://" + InetAddress.getLoopbackAddress().getHostAddress()
+                       + ":" + server.getAddress().getPort() + "/query?q=");
+  }
+
+  public void stop(){
+    if (server != null)
+      server.stop(0);
+  }
+
+  public int getPort(){
+    return server.getAddress().getPort();
+  }
+
+  private void handleQuery(HttpExchange exchange) throws IOException {
+    try {
+      if (!exchange.getRequestMethod().equals("GET")){
+        respond(exchange, 405, "{\"error\":\"Only GET is supported\"}");
+        return;
+      }
+      String query = getParameter(exchange.getRequestURI().getRawQuery(), "q");
+      if (query == null || query.trim().isEmpty()){
+        respond(exchange, 400, "{\"error\":\"Missing query parameter q\"}");
+        return;
+      }
+      String category = getParameter(exchange.getRequestURI().getRawQuery(), "category");
+      long start = System.nanoTime();
+      //Lemmenized for the very index it runs on, which a refresh may have rebuilt with another profile
+      BatchSearcherManager searchers = parser.getSearchers();
+      BatchSearcher searcher = searchers.acquire();
+      String lemmenized;
+      ArrayList<ScoredDocument> documents;
+      try {
+        lemmenized = TextLemmenizer.lemmenizeQuery(query, searcher.getProfile());
+        String lemmenizedCategory = category == null ? "" : TextLemmenizer.lemmenizeQuery(category, searcher.getProfile());
+        documents = searcher.search(lemmenized, lemmenizedCategory);
+      } finally {
+        searchers.release(searcher);
+      }
+      long took = System.nanoTime() - start;
+      requestTimer.record(took);
+      double tookMs = took / 1e6;
+
+      StringBuilder json = new StringBuilder();
+      json.append("{\"query\":").append(ScoredDocument.jsonString(query));
+      json.append(",\"lemmenized\":").append(ScoredDocument.jsonString(lemmenized));
+      json.append(",\"tookMs\":").append(String.format("%.3f", tookMs));
+      json.append(",\"results\":[");
+      for (int i = 0; i < documents.size(); i++){
+        if (i > 0)
+          json.append(',');
+        json.append(documents.get(i).toJson());
+      }
+      json.append("]}");
+      respond(exchange, 200, json.toString());
+    } catch (Exception e) {
+      e.printStackTrace();
+      respond(exchange, 500, "{\"error\":" + ScoredDocument.jsonString(String.valueOf(e.getMessage())) + "}");
+    }
+  }
+
+  private void handleMetrics(HttpExchange exchange) throws IOException {
+    try {
+      if (!exchange.getRequestMethod().equals("GET")){
+        respond(exchange, 405, "{\"error\":\"Only GET is supported\"}");
+        return;
+      }
+      if ("json".equals(getParameter(exchange.getRequestURI().getRawQuery(), "format"))){
+        respond(exchange, 200, Metrics.toJson());
+      } else {
+        respond(exchange, 200, Metrics.toPrometheus(), "text/plain; version=0.0.4; charset=utf-8");
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      respond(exchange, 500, "{\"error\":" + ScoredDocument.jsonString(String.valueOf(e.getMessage())) + "}");
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    respond(exchange, status, body, "application/json; charset=utf-8");
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body, String contentType) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(status, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(bytes);
+    out.close();
+  }
+
+  //Finds one parameter in a raw (still URL encoded) query string
+  static String getParameter(String rawQuery, String name) throws UnsupportedEncodingException {
+    if (rawQuery == null)
+      return null;
+    for (String pair : rawQuery.split("&")){
+      int equals = pair.indexOf('=');
+      if (equals > 0 && pair.substring(0, equals).equals(name)){
+        return URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+      }
+    }
+    return null;
+  }
+
+}
@@ -4,102 +4,476 @@ package CSc483;
  * WikipediaParser class
  * An object of this class contains the tools to parse the entirety of Wikipedia, provided
  * that the WikiDump is located in the src/main/resources/wiki-subset/ directory.
+ * Indexing is incremental: every dump file that makes it into the index is recorded in an
+ * IndexManifest next to the index, and files that haven't changed since are skipped by the next
+ * parse. The index is committed after each file, so an interrupted parse resumes from there.
+ * Files that have left the dump directory since have their documents deleted.
+ * For loading a whole dump, bulk load mode gives the IndexWriter a large RAM buffer, lets merges
+ * pile up into wide tiers without IO throttling and writes plain (non compound) segment files.
+ * It also commits only every CHECKPOINT_MB of dump files (or once, at the end), since every commit
+ * flushes the buffer into a small segment of its own. An interrupted bulk load resumes from the last
+ * of those commits, so it parses again up to CHECKPOINT_MB of files that were already indexed.
+ * The index can be force merged down to a few segments at the end for serving.
+ * The NormalizationProfile the articles are analyzed with is stored in the commit data, and an
+ * index loaded later switches TextLemmenizer to that profile so queries are analyzed the same way.
+ * Nothing is stored per article: the title is indexed (for updates) and kept as a sorted doc value,
+ * which is all a search needs to report, and the text is only indexed. Once a parse is done, the
+ * titles of every new segment are also written to a memory mapped TitleDictionary.
+ * With SHARDS above 1 the index is split into that many shards by a hash of the title, each with
+ * its own IndexWriter (see ShardedReader). Parsing into an index with another number of shards
+ * rebuilds it.
+ * Dump files can be kept compressed as .gz or .bz2 (multistream bz2 is decompressed on every core),
+ * and a dump can also be piped in (see setInput), so no uncompressed copy is ever written to disk.
  */
 
-import java.util.Scanner;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import java.io.IOException;
 import java.io.File;
+import java.io.InputStream;
 
+import java.nio.file.Path;
 import java.nio.file.Paths;
 
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-
 import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
-import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TieredMergePolicy;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
 public class WikipediaParser{
 
+  //Longest article body (in characters) that is kept in memory and indexed. Text past it is dropped.
+  //0 (the default) indexes every article in full.
+  public static int MAX_ARTICLE_CHARS = 0;
+
+  //IndexWriter settings, see newWriterConfig()
+  public static boolean BULK_LOAD = false;
+  public static final int BULK_RAM_BUFFER_MB = 256; //RAM buffer used in bulk load mode unless one is given
+  public static int RAM_BUFFER_MB = (int) IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+  public static int MERGE_THREADS = 0;          //0 lets Lucene pick from the core count and disk type
+  public static int FORCE_MERGE_SEGMENTS = 0;   //0 leaves the segments as they are after parsing (per shard)
+  public static final int BULK_CHECKPOINT_MB = 1024; //Dump files read between commits in bulk load mode unless given
+  public static int CHECKPOINT_MB = BULK_CHECKPOINT_MB; //0 commits a bulk load only once it's done
+
+  //How many shards the index is split into, 1 keeps the whole index in the index directory
+  public static int SHARDS = 1;
+
+  private static final Metrics.Timer fileTimer = Metrics.timer("watson_parse_file_seconds",
+      "Time to parse and index one Wikipedia dump file");
+  private static final Metrics.Counter documentsIndexed = Metrics.counter("watson_documents_indexed_total",
+      "Wikipedia articles added to the index");
+  private static final Metrics.Counter bytesIndexed = Metrics.counter("watson_bytes_read_total",
+      "Bytes of Wikipedia dump text read while parsing, after decompression");
+  private static final Metrics.Counter filesIndexed = Metrics.counter("watson_files_indexed_total",
+      "Wikipedia dump files indexed");
+  private static final Metrics.Gauge documentsPerSecond = Metrics.gauge("watson_documents_indexed_per_second",
+      "Articles indexed per second by the last parse");
+
   IndexReader luceneIndex;
+  //Hands out the searcher queries run on, and swaps in newer commits of the index if refreshing
+  BatchSearcherManager searchers;
+  long refreshMillis;
+  //Lemmenized query -> top documents, dropped whenever the index changes
+  QueryCache<ArrayList<ScoredDocument>> resultCache = new QueryCache<ArrayList<ScoredDocument>>("Result cache");
+  Reranker reranker;
+  int rerankDepth;
+  AtomicLong bytesRead = new AtomicLong();
+  //Parsed along with the next parse's files, e.g. System.in
+  InputStream input;
+  String inputName;
 
   public WikipediaParser(){
 
   }
 
   public void parse(){
-    try {
-      StandardAnalyzer analyzer = new StandardAnalyzer();
-      Directory index = FSDirectory.open(Paths.get(WatsonMinch.luceneOutputDir));
-  
-      IndexWriterConfig config = new IndexWriterConfig(analyzer);
+    parse(Runtime.getRuntime().availableProcessors());
+  }
 
-      IndexWriter w = new IndexWriter(index, config);
+  public void parse(int workers){
+    parse(workers, false);
+  }
 
+  public void parse(int workers, boolean fullRebuild){
+    parse(WatsonMinch.wikipediaFilesPath, WatsonMinch.luceneOutputDir, workers, fullRebuild);
+  }
+
+  public void parse(String wikipediaDir, String indexDir, int workers){
+    parse(wikipediaDir, indexDir, workers, false);
+  }
+
+  //Each dump file is handed to a pool of worker threads. Every worker reads its own file and adds
+  //the documents to the shared IndexWriter of their shard, which is thread-safe. The IndexWriter
+  //lemmenizes each article with WatsonAnalyzer on the worker thread that adds it.
+  //Unless fullRebuild is set, files already in the index's manifest are skipped, and a changed file
+  //has its old documents replaced. With fullRebuild the index is recreated from every file.
+  public void parse(String wikipediaDir, String indexDir, int workers, boolean fullRebuild){
+    try {
       //Locate wikipedia pages
-      File folder = new File(WatsonMinch.wikipediaFilesPath);
-      if (folder == null || folder.listFiles() == null){
-        //Then we don't have any files to parse
-        return;
+      File folder = new File(wikipediaDir);
+      File[] files = folder.listFiles();
+      boolean listed = files != null; //Only a folder that was read can say which files are gone
+      if (files == null){
+        if (input == null)
+          return; //Then we don't have any files to parse, leave the index as it is
+        files = new File[0];
       }
 
-      String currentTitle = "";
-      String documentText = ""; // <- Lemmenized already
-      for (File file : folder.listFiles()){
-        if (!file.getName().substring(0,15).equals("enwiki-20140602"))
-          continue; //Then this file isn't named correctly, skip
-        //Then we have a valid file name
-        System.out.println(file.getName());
-        Scanner fileReader = new Scanner(file);
-        while (fileReader.hasNext()){
-          String thisLine = fileReader.nextLine().trim();
-          if (isTitle(thisLine)){
-            thisLine = thisLine.substring(2,thisLine.length() - 2); // Lop off brackets
-            //Wrap up previous document
-            if (!currentTitle.equals("")){
-              Document thisDoc = new Document();
-              thisDoc.add(new StringField("docid", currentTitle, Field.Store.YES));
-              thisDoc.add(new TextField("text", documentText, Field.Store.YES));
-              w.addDocument(thisDoc);
+      Path indexPath = Paths.get(indexDir);
+      int shards = Math.max(1, SHARDS);
+      Directory[] directories = new Directory[shards];
+      for (int shard = 0; shard < shards; shard++){
+        directories[shard] = FSDirectory.open(shards == 1 ? indexPath : ShardedReader.shardPath(indexPath, shard));
+      }
+      //The first shard (or the whole index) stands for all of them
+      Directory index = directories[0];
+
+      IndexManifest manifest = new IndexManifest(indexPath);
+      NormalizationProfile profile = TextLemmenizer.getProfile();
+      String recordedProfile = null;
+      int existingShards = ShardedReader.countShards(indexPath);
+      if (!fullRebuild && DirectoryReader.indexExists(index) && existingShards != (shards == 1 ? 0 : shards)){
+        //Articles can't move between shards, so they are all indexed again
+        System.out.println("The index has " + Math.max(1, existingShards) + " shard(s), rebuilding it with " + shards + ".");
+        fullRebuild = true;
+      }
+      if (!fullRebuild && DirectoryReader.indexExists(index)){
+        DirectoryReader existing = DirectoryReader.open(index);
+        NormalizationProfile existingProfile = NormalizationProfile.of(existing);
+        recordedProfile = existing.getIndexCommit().getUserData().get(NormalizationProfile.commitDataKey);
+        existing.close();
+        if (recordedProfile == null){
+          //Its terms came from StandardAnalyzer, and wouldn't mix with WatsonAnalyzer's
+          System.out.println("The index was built before its normalization profile was recorded, rebuilding it with " + profile + ".");
+          fullRebuild = true;
+        } else if (existingProfile != profile){
+          //Terms from two profiles can't be mixed in one index
+          System.out.println("The index was built with the " + existingProfile + " profile, rebuilding it with " + profile + ".");
+          fullRebuild = true;
+        }
+      }
+      IndexWriterConfig.OpenMode openMode = IndexWriterConfig.OpenMode.CREATE_OR_APPEND;
+      if (fullRebuild || !DirectoryReader.indexExists(index)){
+        //Nothing in the manifest can be trusted without the index it describes
+        openMode = IndexWriterConfig.OpenMode.CREATE;
+        manifest.clear();
+        //Shards of an old layout would be opened along with the new ones
+        ShardedReader.deleteShards(indexPath, shards == 1 ? 0 : shards);
+        if (shards > 1){
+          //and an unsharded index would only take up space
+          try (Directory unsharded = FSDirectory.open(indexPath)) {
+            if (DirectoryReader.indexExists(unsharded))
+              new IndexWriter(unsharded, new IndexWriterConfig().setOpenMode(IndexWriterConfig.OpenMode.CREATE)).close();
+          }
+        }
+      }
+      boolean replace = openMode != IndexWriterConfig.OpenMode.CREATE;
+
+      IndexWriter[] writers = new IndexWriter[shards];
+      ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, workers));
+      boolean finished = false;
+      try {
+        for (int shard = 0; shard < shards; shard++){
+          IndexWriterConfig config = newWriterConfig();
+          config.setOpenMode(openMode);
+          writers[shard] = new IndexWriter(directories[shard], config);
+          //The writer keeps the last commit's data, so it's only set if the profile isn't recorded yet.
+          //(Setting it counts as a change, and would commit a new generation of an unchanged index.)
+          if (openMode == IndexWriterConfig.OpenMode.CREATE || !profile.name().equals(recordedProfile))
+            writers[shard].setLiveCommitData(Collections.singletonMap(NormalizationProfile.commitDataKey, profile.name()).entrySet());
+        }
+
+        long start = System.currentTimeMillis();
+        int removedCount = 0;
+        if (replace && listed)
+          removedCount = removeMissingFiles(files, manifest, writers);
+        AtomicInteger documentCount = new AtomicInteger();
+        AtomicInteger fileCount = new AtomicInteger();
+        AtomicInteger skippedCount = new AtomicInteger();
+        //Files whose documents have been added but not committed yet, and their size
+        ArrayList<IndexManifest.Entry> uncommitted = new ArrayList<IndexManifest.Entry>();
+        AtomicLong uncommittedBytes = new AtomicLong();
+        bytesRead.set(0);
+        ArrayList<Future<?>> tasks = new ArrayList<Future<?>>();
+        for (File file : files){
+          if (!file.getName().startsWith("enwiki-20140602"))
+            continue; //Then this file isn't named correctly, skip
+          //Then we have a valid file name
+          tasks.add(pool.submit(() -> {
+            if (manifest.getUnchanged(file.toPath()) != null){
+              skippedCount.incrementAndGet();
+              return null; //Already indexed as it is
+            }
+            System.out.println(file.getName());
+            long fileStart = System.nanoTime();
+            //Describe the file before reading it, so a change made during the parse is seen next time
+            IndexManifest.Entry entry = IndexManifest.describe(file.toPath());
+            if (replace){
+              for (IndexWriter w : writers){
+                w.deleteDocuments(new Term("file", file.getName()));
+              }
             }
-            //Now that we've stored the previous document, store this new title
-            //and reset our document text string
-            currentTitle = thisLine;
-            documentText = "";
-          } else {
-            //Then it's body text
-            //Lemmenize it first
-            thisLine = TextLemmenizer.lemmenizeText(thisLine);
-            //now add it to our string
-            documentText = documentText + " " + thisLine;
-            documentText = documentText.trim();
+            documentCount.addAndGet(parseFile(file, writers, replace));
+            //Checkpoint: the file's documents are committed before the manifest says they're there.
+            //In bulk load mode that only happens every CHECKPOINT_MB, so the RAM buffer fills up first.
+            //The size is counted under the same lock as the list, so only one worker sees it go over.
+            long checkpointBytes = CHECKPOINT_MB * (1L << 20);
+            boolean due;
+            synchronized (uncommitted){
+              uncommitted.add(entry);
+              due = !BULK_LOAD || (CHECKPOINT_MB > 0 && uncommittedBytes.addAndGet(entry.size) >= checkpointBytes);
+              if (due)
+                uncommittedBytes.set(0);
+            }
+            if (due)
+              checkpoint(writers, manifest, uncommitted);
+            fileCount.incrementAndGet();
+            filesIndexed.add(1);
+            fileTimer.record(System.nanoTime() - fileStart);
+            return null;
+          }));
+        }
+        if (input != null){
+          InputStream stream = input;
+          input = null; //A stream can only be parsed once
+          tasks.add(pool.submit(() -> {
+            //A stream can't be checked for changes, so it isn't in the manifest. Its articles replace
+            //any already indexed under the same title.
+            System.out.println(inputName);
+            long fileStart = System.nanoTime();
+            try (DumpReader reader = DumpReader.open(stream)) {
+              documentCount.addAndGet(parseDump(reader, inputName, writers, true));
+            }
+            if (!BULK_LOAD)
+              checkpoint(writers, manifest, uncommitted);
+            fileCount.incrementAndGet();
+            filesIndexed.add(1);
+            fileTimer.record(System.nanoTime() - fileStart);
+            return null;
+          }));
+        }
+        pool.shutdown();
+        for (Future<?> task : tasks){
+          try {
+            task.get();
+          } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            System.err.println("Error parsing a Wikipedia file, its documents may be missing from the index.");
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            break;
           }
         }
+        checkpoint(writers, manifest, uncommitted);
+        if (FORCE_MERGE_SEGMENTS > 0){
+          long mergeStart = System.currentTimeMillis();
+          for (IndexWriter w : writers){
+            w.forceMerge(FORCE_MERGE_SEGMENTS);
+            w.commit();
+          }
+          System.out.printf("Merged the index into at most %d segment(s) per shard in %.1f s.%n",
+                            FORCE_MERGE_SEGMENTS, (System.currentTimeMillis() - mergeStart) / 1000.0);
+        }
+        for (IndexWriter w : writers){
+          w.close();
+        }
+        manifest.save();
+        finished = true;
+
+        double seconds = (System.currentTimeMillis() - start) / 1000.0;
+        documentsPerSecond.set(documentCount.get() / Math.max(seconds, 0.001));
+        System.out.printf("Indexed %d documents from %d file(s) (%.1f MB of text read) in %.1f s with %d worker(s), %d unchanged file(s) skipped, %d removed file(s) deleted.%n",
+                          documentCount.get(), fileCount.get(), bytesRead.get() / 1e6, seconds, Math.max(1, workers), skippedCount.get(), removedCount);
+        System.out.println(TextLemmenizer.getTokenCache());
+      } finally {
+        //On an error the workers are stopped and whatever wasn't committed is thrown away. The
+        //manifest only lists committed files, so the next run picks up where this one stopped.
+        pool.shutdownNow();
+        if (!finished)
+          rollback(writers);
+        IOUtils.closeWhileHandlingException(directories);
       }
-      w.commit();
-      
-      luceneIndex = DirectoryReader.open(index);
+
+      IndexReader reader = ShardedReader.open(indexPath);
+      long dictionaryStart = System.currentTimeMillis();
+      try {
+        TitleDictionary.build(reader);
+        System.out.printf("Built the title dictionaries in %.1f s.%n", (System.currentTimeMillis() - dictionaryStart) / 1000.0);
+      } catch (IOException e) {
+        //Searches read the titles from the doc values instead
+        e.printStackTrace();
+        System.err.println("Error: The title dictionaries could not be built.");
+      }
+      setLuceneIndex(reader);
+      System.out.println("The index has " + shards + " shard(s) and " + this.luceneIndex.leaves().size() + " segment(s).");
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
 
+  //Drops the uncommitted changes of every writer that was opened, and closes it
+  private static void rollback(IndexWriter[] writers){
+    for (IndexWriter w : writers){
+      if (w == null)
+        continue;
+      try {
+        w.rollback();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  //Commits every writer, then records the files that were finished before the commit in the manifest
+  private static void checkpoint(IndexWriter[] writers, IndexManifest manifest, ArrayList<IndexManifest.Entry> uncommitted) throws IOException {
+    ArrayList<IndexManifest.Entry> committed;
+    synchronized (uncommitted){
+      committed = new ArrayList<IndexManifest.Entry>(uncommitted);
+      uncommitted.clear();
+    }
+    for (IndexWriter w : writers){
+      w.commit();
+    }
+    for (IndexManifest.Entry entry : committed){
+      manifest.put(entry);
+    }
+    manifest.save();
+  }
+
+  //Deletes the documents of every file in the manifest that isn't among files any more (deleted, or
+  //renamed, in which case it's indexed again under its new name). The deletes are committed before
+  //the files leave the manifest, so an interrupted run deletes them again next time.
+  //Returns how many files were removed.
+  private int removeMissingFiles(File[] files, IndexManifest manifest, IndexWriter[] writers) throws IOException {
+    HashSet<String> present = new HashSet<String>();
+    for (File file : files){
+      present.add(file.getName());
+    }
+    ArrayList<String> missing = new ArrayList<String>();
+    for (String name : manifest.getNames()){
+      if (!present.contains(name))
+        missing.add(name);
+    }
+    if (missing.isEmpty())
+      return 0;
+    for (String name : missing){
+      System.out.println(name + " is gone, deleting its documents.");
+      for (IndexWriter w : writers){
+        w.deleteDocuments(new Term("file", name));
+      }
+    }
+    for (IndexWriter w : writers){
+      w.commit();
+    }
+    for (String name : missing){
+      manifest.remove(name);
+    }
+    manifest.save();
+    return missing.size();
+  }
+
+  //Articles are lemmenized by the analyzer as they are indexed, the same way queries are.
+  //In bulk load mode merging is tuned for one big write: segments are merged 30 at a time in wide
+  //tiers, merges aren't IO throttled, and segments are never packed into compound files.
+  static IndexWriterConfig newWriterConfig(){
+    IndexWriterConfig config = new IndexWriterConfig(TextLemmenizer.getAnalyzer());
+    config.setRAMBufferSizeMB(RAM_BUFFER_MB);
+    ConcurrentMergeScheduler scheduler = new ConcurrentMergeScheduler();
+    if (MERGE_THREADS > 0)
+      scheduler.setMaxMergesAndThreads(MERGE_THREADS + 5, MERGE_THREADS);
+    if (BULK_LOAD){
+      scheduler.disableAutoIOThrottle();
+      TieredMergePolicy policy = new TieredMergePolicy();
+      policy.setSegmentsPerTier(30);
+      policy.setMaxMergeAtOnce(30);
+      policy.setNoCFSRatio(0.0);
+      config.setMergePolicy(policy);
+      config.setUseCompoundFile(false);
+    }
+    config.setMergeScheduler(scheduler);
+    return config;
+  }
+
+  //Parses one dump file into the index, returns the number of documents added.
+  //Documents never span files, so the last article of the file is added once the file is done.
+  //With replace set, an article replaces any document already indexed under its title.
+  //Each article goes to the writer of the shard its title hashes to.
+  private int parseFile(File file, IndexWriter[] writers, boolean replace) throws IOException {
+    try (DumpReader fileReader = DumpReader.open(file.toPath())) {
+      return parseDump(fileReader, file.getName(), writers, replace);
+    }
+  }
+
+  //Reads every article of one dump, fileName is what its documents are recorded under
+  private int parseDump(DumpReader fileReader, String fileName, IndexWriter[] writers, boolean replace) throws IOException {
+    int documentCount = 0;
+    String currentTitle = "";
+    ArticleBuffer documentText = new ArticleBuffer(MAX_ARTICLE_CHARS, '\n'); // <- Lemmenized by the analyzer
+    while (fileReader.nextLine()){
+      if (fileReader.isTitle()){
+        //Wrap up previous document
+        if (!currentTitle.equals("")){
+          addDocument(writers[ShardedReader.shardOf(currentTitle, writers.length)], fileName, currentTitle, documentText, replace);
+          documentCount++;
+        }
+        //Now that we've stored the previous document, store this new title
+        //and reset our document text buffer
+        currentTitle = fileReader.getTitle(); // Brackets already lopped off
+        documentText.clear();
+      } else {
+        //Then it's body text, add it to our buffer (one line per line, so the
+        //analyzer can apply its rules line by line)
+        documentText.append(fileReader.getLine());
+      }
+    }
+    bytesRead.addAndGet(fileReader.getBytesRead());
+    bytesIndexed.add(fileReader.getBytesRead());
+    if (!currentTitle.equals("")){
+      addDocument(writers[ShardedReader.shardOf(currentTitle, writers.length)], fileName, currentTitle, documentText, replace);
+      documentCount++;
+    }
+    return documentCount;
+  }
+
+  private void addDocument(IndexWriter w, String fileName, String title, ArticleBuffer documentText, boolean replace) throws IOException {
+    if (documentText.isTruncated()){
+      System.err.println("Warning: '" + title + "' is longer than " + MAX_ARTICLE_CHARS + " characters, the rest was not indexed.");
+    }
+    Document thisDoc = new Document();
+    thisDoc.add(new StringField("docid", title, Field.Store.NO));
+    thisDoc.add(new SortedDocValuesField("docid", new BytesRef(title))); //Read back by BatchSearcher
+    thisDoc.add(new TextField("text", documentText.reader())); //Not stored, so no String copy is needed
+    thisDoc.add(new StringField("file", fileName, Field.Store.NO)); //Which dump file it came from
+    if (replace){
+      w.updateDocument(new Term("docid", title), thisDoc);
+    } else {
+      w.addDocument(thisDoc);
+    }
+    documentsIndexed.add(1);
+  }
+
   public IndexReader getIndex(){
     if (this.luceneIndex == null){
       System.err.println("Error: parse() must be called before getIndex()");
@@ -116,55 +490,176 @@ public class WikipediaParser{
     return false;
   }
 
-  //This is used when we read in an index instead of parsing
+  //Also parses a dump read from in (plain, gzip or bzip2) the next time parse() is called. Its
+  //articles are recorded as coming from a file called name.
+  public void setInput(InputStream in, String name){
+    this.input = in;
+    this.inputName = name;
+  }
+
+  //This is used when we read in an index instead of parsing.
+  //Searching keeps its own reference to the index, the caller still closes theirs.
   public void setLuceneIndex (IndexReader index){
     this.luceneIndex = index;
+    closeSearchers();
+    this.resultCache.invalidate(generationOf(index));
+    if (index == null)
+      return;
+    reportProfileOf(index);
   }
 
+  //Queries have to be analyzed with the profile the index was built with. Nothing global is
+  //switched for it, the searchers carry the profile (see getProfile() and scoreQuery()).
+  static void reportProfileOf(IndexReader index){
+    try {
+      NormalizationProfile profile = NormalizationProfile.of(index);
+      if (!NormalizationProfile.isRecorded(index)){
+        System.err.println("Warning: The index was built before WatsonAnalyzer, so query terms such as possessives, contractions");
+        System.err.println("and hyphenated words won't match it. Parse it again with -p to search it properly.");
+      }
+      if (profile != TextLemmenizer.getProfile())
+        System.out.println("The index was built with the " + profile + " profile, queries will be analyzed with it too.");
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.err.println("Error: The index's normalization profile could not be read, assuming " + NormalizationProfile.FULL + ".");
+    }
+  }
+
+  //Identifies which commit of which index a reader shows. A reader opened again on the same commit
+  //has the same generation, so its cached results are kept.
+  static Object generationOf(IndexReader index){
+    if (index instanceof ShardedReader){
+      StringBuilder generation = new StringBuilder();
+      for (DirectoryReader shard : ((ShardedReader) index).getShards()){
+        generation.append(generationOf(shard)).append(' ');
+      }
+      return generation.toString();
+    }
+    if (index instanceof DirectoryReader){
+      DirectoryReader reader = (DirectoryReader) index;
+      return reader.directory().toString() + "@" + reader.getVersion();
+    }
+    return index; //Only this very reader is known to match
+  }
+
+  public void setResultCache(int maxSize, int ttlSeconds){
+    this.resultCache = new QueryCache<ArrayList<ScoredDocument>>("Result cache", maxSize, ttlSeconds);
+    this.resultCache.invalidate(generationOf(this.luceneIndex));
+    closeSearchers();
+  }
+
+  public QueryCache<ArrayList<ScoredDocument>> getResultCache(){
+    return this.resultCache;
+  }
+
+  //Reranks the best depth BM25 documents of every query with reranker, null turns reranking off.
+  //Results ordered by the previous reranker are dropped from the result cache.
+  public void setReranker(Reranker reranker, int depth){
+    this.reranker = reranker;
+    this.rerankDepth = depth;
+    this.resultCache.clear();
+    closeSearchers();
+  }
+
+  //Checks the index directory for new commits every intervalMillis and searches the newest one,
+  //without restarting or blocking queries. 0 searches the index as it was loaded.
+  public void setRefreshInterval(long intervalMillis){
+    this.refreshMillis = intervalMillis;
+    closeSearchers();
+  }
+
+  //Scores every query against the index. The result is keyed by the original query.
   public HashMap<String, ArrayList<ScoredDocument>> score(HashMap<String, String> lemmenizedQueries){
-    HashMap<String, ArrayList<ScoredDocument>> scores = new HashMap<String, ArrayList<ScoredDocument>>();
+    return score(lemmenizedQueries, null);
+  }
+
+  //lemmenizedCategories (may be null) maps an original query to its lemmenized Jeopardy category
+  public HashMap<String, ArrayList<ScoredDocument>> score(HashMap<String, String> lemmenizedQueries,
+                                                          HashMap<String, String> lemmenizedCategories){
     if (this.luceneIndex == null){
       System.err.println("Error: parse() must be called before score(), or an index must be given");
-      return scores;
-    }
-    for (String originalQuery : lemmenizedQueries.keySet()){
-      String lemmenizedQuery = lemmenizedQueries.get(originalQuery);
-      
-      //build query object
-      Query q = null;
-
-      try{
-        StandardAnalyzer analyzer = new StandardAnalyzer();
-        q = new QueryParser("text", analyzer).parse(lemmenizedQuery);
-      } catch (ParseException e){
-        System.err.println(e.getMessage());
-        return scores;
+      return new HashMap<String, ArrayList<ScoredDocument>>();
+    }
+    try {
+      BatchSearcherManager manager = getSearchers();
+      BatchSearcher searcher = manager.acquire();
+      try {
+        return searcher.search(lemmenizedQueries, lemmenizedCategories);
+      } finally {
+        manager.release(searcher);
       }
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.err.println("Error: The index could not be searched.");
+      return new HashMap<String, ArrayList<ScoredDocument>>();
+    }
+  }
 
-      ArrayList<ScoredDocument> documents = new ArrayList<ScoredDocument>();
+  //The profile queries against the index being searched now have to be lemmenized with
+  public NormalizationProfile getProfile() throws IOException {
+    if (this.luceneIndex == null)
+      return TextLemmenizer.getProfile(); //The profile the next parse builds with
+    BatchSearcherManager manager = getSearchers();
+    BatchSearcher searcher = manager.acquire();
+    try {
+      return searcher.getProfile();
+    } finally {
+      manager.release(searcher);
+    }
+  }
 
-      int hitsPerPage = 10; //We only want the 10 best results
-      IndexSearcher searcher = new IndexSearcher(this.luceneIndex);
-      try{
-        TopDocs docs = searcher.search(q, hitsPerPage);
-        ScoreDoc[] hits = docs.scoreDocs;
+  //Lemmenizes a raw query (and category, which may be empty) for the index it is run on, and scores it
+  public ArrayList<ScoredDocument> scoreQuery(String query, String category) throws IOException {
+    if (this.luceneIndex == null){
+      throw new IllegalStateException("parse() must be called before score(), or an index must be given");
+    }
+    BatchSearcherManager manager = getSearchers();
+    BatchSearcher searcher = manager.acquire();
+    try {
+      String lemmenizedCategory = category.isEmpty() ? "" : TextLemmenizer.lemmenizeQuery(category, searcher.getProfile());
+      return searcher.search(TextLemmenizer.lemmenizeQuery(query, searcher.getProfile()), lemmenizedCategory);
+    } finally {
+      manager.release(searcher);
+    }
+  }
 
-        for(int i=0;i<hits.length;++i) {
-          int docId = hits[i].doc;
-          Document d = searcher.doc(docId);
-          System.out.println(d.get("docid") + "\t" + hits[i].score);
-          ScoredDocument thisResult = new ScoredDocument(d.get("docid"), hits[i].score);
-          documents.add(thisResult);
-        }
-      } catch (IOException e) {
-        e.printStackTrace();
-        System.err.println("Error scoring the query '" + originalQuery + "', skipping.");
-        continue;
-      }  
-      //sort documents?
-      scores.put(lemmenizedQuery, documents);
+  //Scores one lemmenized query on the calling thread
+  public ArrayList<ScoredDocument> score(String lemmenizedQuery) throws IOException {
+    return score(lemmenizedQuery, "");
+  }
+
+  public ArrayList<ScoredDocument> score(String lemmenizedQuery, String lemmenizedCategory) throws IOException {
+    if (this.luceneIndex == null){
+      throw new IllegalStateException("parse() must be called before score(), or an index must be given");
+    }
+    BatchSearcherManager manager = getSearchers();
+    BatchSearcher searcher = manager.acquire();
+    try {
+      return searcher.search(lemmenizedQuery, lemmenizedCategory);
+    } finally {
+      manager.release(searcher);
+    }
+  }
+
+  //One searcher (and analyzer) for every query against this index, until a newer commit replaces it
+  public synchronized BatchSearcherManager getSearchers(){
+    if (this.searchers == null){
+      this.searchers = new BatchSearcherManager(this.luceneIndex, this.resultCache, this.reranker, this.rerankDepth);
+      this.searchers.startRefreshing(this.refreshMillis);
+    }
+    return this.searchers;
+  }
+
+  //Queries that are still running finish on the searcher they have
+  private synchronized void closeSearchers(){
+    if (this.searchers == null)
+      return;
+    try {
+      this.searchers.close();
+    } catch (IOException e) {
+      e.printStackTrace();
     }
-    return scores;
+    this.searchers = null;
   }
 
 }
@@ -1,5 +1,61 @@
 package CSc483;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URISyntaxException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -7,6 +63,60 @@ import static org.junit.jupiter.api.Assertions.*;
  * Unit tests for Watson
  */
 public class AppTest{
+    //Temporary directories made by tempDir(), deleted after each test
+    private final ArrayList<Path> tempDirs = new ArrayList<Path>();
+    //Static settings some tests change, put back after each test
+    private NormalizationProfile profile;
+    private boolean stem, lemmenize, bulkLoad;
+    private int shards, ramBufferMB, mergeThreads, forceMergeSegments, checkpointMB, maxArticleChars;
+    private int totalHitsThreshold, chunkSize, maxChunkSize;
+
+    @BeforeEach
+    public void saveSettings(){
+        profile = TextLemmenizer.getProfile();
+        stem = TextLemmenizer.STEM;
+        lemmenize = TextLemmenizer.LEMMENIZE;
+        bulkLoad = WikipediaParser.BULK_LOAD;
+        shards = WikipediaParser.SHARDS;
+        ramBufferMB = WikipediaParser.RAM_BUFFER_MB;
+        mergeThreads = WikipediaParser.MERGE_THREADS;
+        forceMergeSegments = WikipediaParser.FORCE_MERGE_SEGMENTS;
+        checkpointMB = WikipediaParser.CHECKPOINT_MB;
+        maxArticleChars = WikipediaParser.MAX_ARTICLE_CHARS;
+        totalHitsThreshold = BatchSearcher.TOTAL_HITS_THRESHOLD;
+        chunkSize = MultistreamBzip2InputStream.CHUNK_SIZE;
+        maxChunkSize = MultistreamBzip2InputStream.MAX_CHUNK_SIZE;
+    }
+
+    @AfterEach
+    public void restoreSettings() throws IOException {
+        TextLemmenizer.setProfile(profile);
+        TextLemmenizer.STEM = stem;
+        TextLemmenizer.LEMMENIZE = lemmenize;
+        WikipediaParser.BULK_LOAD = bulkLoad;
+        WikipediaParser.SHARDS = shards;
+        WikipediaParser.RAM_BUFFER_MB = ramBufferMB;
+        WikipediaParser.MERGE_THREADS = mergeThreads;
+        WikipediaParser.FORCE_MERGE_SEGMENTS = forceMergeSegments;
+        WikipediaParser.CHECKPOINT_MB = checkpointMB;
+        WikipediaParser.MAX_ARTICLE_CHARS = maxArticleChars;
+        BatchSearcher.TOTAL_HITS_THRESHOLD = totalHitsThreshold;
+        MultistreamBzip2InputStream.CHUNK_SIZE = chunkSize;
+        MultistreamBzip2InputStream.MAX_CHUNK_SIZE = maxChunkSize;
+        TextLemmenizer.setQueryCache(QueryCache.DEFAULT_SIZE, QueryCache.DEFAULT_TTL_SECONDS);
+        for (Path dir : tempDirs){
+            Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+        tempDirs.clear();
+    }
+
+    //A new empty directory, deleted once the test is over whether it passed or not
+    private Path tempDir(String prefix) throws IOException {
+        Path dir = Files.createTempDirectory(prefix);
+        tempDirs.add(dir);
+        return dir;
+    }
+
     /**
      * Rigorous Test :-)
      */
@@ -27,6 +137,42 @@ public class AppTest{
         assertFalse(WatsonMinch.parseArgs(args3, "-p"));
         assertFalse(WatsonMinch.parseArgs(args3, "-q"));
         assertEquals(WatsonMinch.parseArgs(args3), "");
+        String[] args4 = {"-p", "-t", "8", "-q", "-t", "9"};
+        assertEquals(WatsonMinch.parseArgs(args4, "-t", 1), 8);
+        assertEquals(WatsonMinch.parseArgs(args1, "-t", 1), 1);
+        String[] args5 = {"-s", "-v"};
+        assertEquals(WatsonMinch.parseArgs(args5, "-s", 8483), 8483);
+        String[] args6 = {"-e", "metrics.json", "-q", "-e", "other"};
+        assertEquals(WatsonMinch.parseArgs(args6, "-e", (String) null), "metrics.json");
+        assertNull(WatsonMinch.parseArgs(args5, "-e", (String) null));
+    }
+
+    @Test
+    public void testMetrics() {
+        Metrics.Timer timer = Metrics.timer("watson_test_seconds", "A test timer");
+        assertSame(timer, Metrics.timer("watson_test_seconds", "A test timer"));
+        timer.record(30000);       //30 microseconds
+        timer.record(2000000);     //2 ms
+        timer.record(20000000000L); //20 s, past the last bucket
+        assertEquals(3, timer.getCount());
+        assertEquals(20.00203, timer.getSumSeconds(), 1e-9);
+        assertEquals(20.0, timer.getMaxSeconds(), 1e-9);
+        assertEquals(0.0025, timer.getQuantileSeconds(0.5), 1e-12);
+        assertEquals(20.0, timer.getQuantileSeconds(1.0), 1e-9);
+        Metrics.counter("watson_test_total", "A test counter").add(5);
+        Metrics.gauge("watson_test_rate", "A test gauge").set(1.5);
+
+        String prometheus = Metrics.toPrometheus();
+        assertTrue(prometheus.contains("# TYPE watson_test_seconds histogram\n"));
+        assertTrue(prometheus.contains("watson_test_seconds_bucket{le=\"5.0E-5\"} 1\n"));
+        assertTrue(prometheus.contains("watson_test_seconds_bucket{le=\"0.0025\"} 2\n"));
+        assertTrue(prometheus.contains("watson_test_seconds_bucket{le=\"+Inf\"} 3\n"));
+        assertTrue(prometheus.contains("watson_test_seconds_count 3\n"));
+        assertTrue(prometheus.contains("watson_test_total 5\n"));
+        assertTrue(prometheus.contains("watson_test_rate 1.5\n"));
+        String json = Metrics.toJson();
+        assertTrue(json.contains("\"watson_test_seconds\":{\"count\":3,"));
+        assertTrue(json.contains("\"watson_test_total\":5"));
     }
 
     @Test
@@ -52,6 +198,845 @@ public class AppTest{
         assertFalse(parser.isTitle("[[This is | not a title]]"));
     }
 
+    @Test
+    public void testArticleBuffer() {
+        ArticleBuffer buffer = new ArticleBuffer(100);
+        buffer.append("first line");
+        buffer.append("");
+        buffer.append("second line");
+        assertEquals(buffer.toString(), "first line second line");
+        buffer.clear();
+        assertEquals(buffer.toString(), "");
+        assertFalse(buffer.isTruncated());
+    }
+
+    @Test
+    public void testArticleBufferUnlimitedByDefault() throws IOException {
+        //A limit of 0 (WikipediaParser's default) keeps the whole article
+        ArticleBuffer buffer = new ArticleBuffer(WikipediaParser.MAX_ARTICLE_CHARS, '\n');
+        String line = "lemmen word for a veri long synthet articl";
+        for (int i = 0; i < 100000; i++){
+            buffer.append(line);
+        }
+        assertFalse(buffer.isTruncated());
+        assertEquals(buffer.length(), 100000 * (line.length() + 1) - 1);
+        //The reader hands back exactly the buffered text
+        char[] read = new char[buffer.length() + 1];
+        int total = 0;
+        try (Reader reader = buffer.reader()) {
+            int n;
+            while ((n = reader.read(read, total, read.length - total)) > 0){
+                total += n;
+            }
+        }
+        assertEquals(total, buffer.length());
+        assertEquals(new String(read, 0, total), buffer.toString());
+    }
+
+    @Test
+    public void testArticleBufferStaysBounded() {
+        //A synthetic 1M line article must never hold more than the limit in memory
+        int maxChars = 1 << 16;
+        ArticleBuffer buffer = new ArticleBuffer(maxChars);
+        String line = "lemmen word for a veri long synthet articl";
+        for (int i = 0; i < 1000000; i++){
+            buffer.append(line);
+            assertTrue(buffer.capacity() <= maxChars);
+        }
+        assertTrue(buffer.isTruncated());
+        assertEquals(buffer.length(), maxChars);
+        int capacity = buffer.capacity();
+        buffer.clear();
+        buffer.append(line);
+        assertEquals(buffer.capacity(), capacity); //The array is reused for the next article
+    }
+
+    @Test
+    public void testJson() {
+        ScoredDocument document = new ScoredDocument("[[The \"Post\"]]", 1.5);
+        assertEquals(document.toJson(), "{\"documentID\":\"The \\\"Post\\\"\",\"score\":1.5}");
+        assertEquals(ScoredDocument.jsonString("a\\b\n"), "\"a\\\\b\\u000a\"");
+    }
+
+    @Test
+    public void testLemmenizeQueries() {
+        //The worker pool must give exactly what one thread gives
+        ArrayList<String> queries = new ArrayList<String>(WatsonMinch.getQueriesFromFile());
+        queries.add(queries.get(0));
+        TextLemmenizer.setQueryCache(0, 0);
+        HashMap<String, String> sequential = TextLemmenizer.lemmenizeQueries(queries, 1);
+        HashMap<String, String> parallel = TextLemmenizer.lemmenizeQueries(queries, 4);
+        assertEquals(queries.size() - 1, parallel.size());
+        assertEquals(sequential, parallel);
+    }
+
+    @Test
+    public void testQueryCache() {
+        AtomicLong now = new AtomicLong();
+        QueryCache<String> cache = new QueryCache<String>("Test cache", 32, 1, now::get);
+        assertNull(cache.get("a"));
+        cache.put("a", "A", 2000000);
+        assertEquals("A", cache.get("a"));
+        assertEquals(2.0, cache.getSavedMillis(), 1e-9);
+        assertEquals(0.5, cache.getHitRate(), 1e-9);
+        for (int i = 0; i < 1000; i++){
+            cache.put("key" + i, "value", 0);
+        }
+        assertTrue(cache.size() <= 32);
+
+        //Entries live until the index generation changes or their time is up
+        cache.put("b", "B", 0);
+        cache.invalidate("index@1");
+        cache.invalidate("index@1");
+        assertEquals("B", cache.get("b"));
+        cache.invalidate("index@2");
+        assertNull(cache.get("b"));
+        cache.put("c", "C", 0);
+        now.addAndGet(1000000000L);
+        assertEquals("C", cache.get("c"));
+        now.incrementAndGet();
+        assertNull(cache.get("c"));
+
+        QueryCache<String> off = new QueryCache<String>("Off", 0, 0);
+        off.put("a", "A", 0);
+        assertNull(off.get("a"));
+
+        //Both spellings of the query share one lemmenized entry
+        TextLemmenizer.setQueryCache(100, 0);
+        String lemmenized = TextLemmenizer.lemmenizeQuery("The Washington  Post");
+        assertEquals(lemmenized, TextLemmenizer.lemmenizeQuery(" The Washington Post "));
+        assertEquals(1, TextLemmenizer.getQueryCache().getHits());
+        //but not one that was lemmenized with other settings
+        String stemmed = TextLemmenizer.lemmenizeQuery("Famous horses");
+        TextLemmenizer.STEM = false;
+        assertEquals("famous horse", TextLemmenizer.lemmenizeQuery("Famous horses"));
+        TextLemmenizer.STEM = true;
+        assertNotEquals(stemmed, "famous horse");
+        assertEquals(stemmed, TextLemmenizer.lemmenizeQuery("Famous horses"));
+        assertEquals(2, TextLemmenizer.getQueryCache().getHits());
+    }
+
+    @Test
+    public void testStemmer() {
+        Stemmer stemmer = new Stemmer();
+        assertEquals(stemmer.stem("caresses"), "caress");
+        assertEquals(stemmer.stem("happy"), "happi");
+        String unchanged = "cat";
+        assertSame(stemmer.stem(unchanged), unchanged);
+        char[] buffer = "xxmeetingsxx".toCharArray();
+        int length = stemmer.stem(buffer, 2, 8);
+        assertEquals(new String(buffer, 2, length), "meet");
+        assertEquals(stemmer.stem("internationalization"), new Stemmer().stem("internationalization"));
+    }
+
+    @Test
+    public void testStemmerFilter() throws IOException {
+        Tokenizer tokenizer = new WhitespaceTokenizer();
+        tokenizer.setReader(new StringReader("ponies agreed meetings"));
+        TokenStream stream = new StemmerFilter(tokenizer);
+        CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+        stream.reset();
+        StringBuilder stems = new StringBuilder();
+        while (stream.incrementToken()){
+            stems.append(term.toString()).append(' ');
+        }
+        stream.end();
+        stream.close();
+        assertEquals(stems.toString().trim(), "poni agre meet");
+    }
+
+    @Test
+    public void testTokenCache() {
+        TokenCache cache = new TokenCache(32);
+        assertNull(cache.get("runs"));
+        cache.put("runs", "run");
+        assertEquals(cache.get("runs"), "run");
+        assertEquals(cache.getHits(), 1);
+        assertEquals(cache.getMisses(), 1);
+        for (int i = 0; i < 1000; i++){
+            cache.put("token" + i, "t" + i);
+        }
+        assertTrue(cache.size() <= 32);
+        TokenCache off = new TokenCache(0);
+        off.put("runs", "run");
+        assertNull(off.get("runs"));
+    }
+
+    @Test
+    public void testWatsonAnalyzer() throws IOException {
+        //Lines are normalized one at a time, and every term points back at the word it came from
+        String text = "Ponies were running.\nThe Cats";
+        TokenStream stream = new WatsonAnalyzer().tokenStream("text", text);
+        CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+        OffsetAttribute offset = stream.addAttribute(OffsetAttribute.class);
+        stream.reset();
+        StringBuilder terms = new StringBuilder();
+        StringBuilder words = new StringBuilder();
+        while (stream.incrementToken()){
+            terms.append(term.toString()).append(' ');
+            words.append(text.substring(offset.startOffset(), offset.endOffset())).append(' ');
+        }
+        stream.end();
+        stream.close();
+        assertEquals(terms.toString().trim(), "poni be run the cat");
+        assertEquals(words.toString().trim(), "Ponies were running The Cats");
+        assertEquals(TextLemmenizer.lemmenizeText("Ponies were running."), "poni be run");
+    }
+
+    @Test
+    public void testStopWords() {
+        StopWordSet stopWords = new StopWordSet(TextLemmenizer.STOPWORDS);
+        for (String stopWord : TextLemmenizer.STOPWORDS){
+            assertTrue(stopWords.contains(stopWord));
+        }
+        assertFalse(stopWords.contains("watson"));
+        assertFalse(stopWords.contains(""));
+        char[] buffer = "xxthexx".toCharArray();
+        assertTrue(stopWords.contains(buffer, 2, 3));
+        assertFalse(stopWords.contains(buffer, 2, 4));
+        ArrayList<String> tokens = new ArrayList<String>(Arrays.asList("the", "washington", "post", "is", "a", "paper"));
+        assertEquals(TextLemmenizer.removeStopWords(tokens), " washington post a paper"); //Only 2 of 6 can go
+        assertTrue(TextLemmenizer.isPunctuation("...!"));
+        assertFalse(TextLemmenizer.isPunctuation("u.s."));
+        assertFalse(TextLemmenizer.isPunctuation(""));
+    }
+
+    @Test
+    public void testDumpReader() throws IOException {
+        //Tiny windows so lines cross window boundaries; the result must match Scanner's
+        String dump = "[[First Title]]\r\n\n  Body line one, caf\u00e9 \u00fcber.  \n[[Not | a title]]\n"
+                    + "a much longer body line that is certainly longer than the window\n[[Second]]\nlast line";
+        Path file = Files.createTempFile("watson-dump", ".txt");
+        Files.write(file, dump.getBytes(StandardCharsets.UTF_8));
+        WikipediaParser parser = new WikipediaParser();
+        ArrayList<String> expected = new ArrayList<String>();
+        Scanner scanner = new Scanner(file.toFile(), "UTF-8");
+        while (scanner.hasNextLine()){
+            String line = scanner.nextLine().trim();
+            expected.add(parser.isTitle(line) ? "T:" + line.substring(2, line.length() - 2) : "L:" + line);
+        }
+        scanner.close();
+        for (int windowSize : new int[]{7, 16, 1 << 20}){
+            ArrayList<String> actual = new ArrayList<String>();
+            DumpReader reader = new DumpReader(file, windowSize);
+            while (reader.nextLine()){
+                actual.add(reader.isTitle() ? "T:" + reader.getTitle() : "L:" + reader.getLine());
+            }
+            assertEquals(reader.getBytesRead(), new File(file.toString()).length());
+            reader.close();
+            assertEquals(expected, actual);
+        }
+        Files.delete(file);
+    }
+
+    @Test
+    public void testIncrementalParse() throws IOException {
+        Path dumps = tempDir("watson-dumps");
+        Path index = tempDir("watson-index");
+        Path first = dumps.resolve("enwiki-20140602-a.txt");
+        Path second = dumps.resolve("enwiki-20140602-b.txt");
+        Files.write(first, "[[Alpha]]\nThe alpha article.\n[[Beta]]\nThe beta article.\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(second, "[[Gamma]]\nThe gamma article.\n".getBytes(StandardCharsets.UTF_8));
+
+        WikipediaParser parser = new WikipediaParser();
+        parser.parse(dumps.toString(), index.toString(), 2);
+        assertEquals(3, parser.getIndex().numDocs());
+        IndexManifest manifest = new IndexManifest(index);
+        assertEquals(2, manifest.size());
+        assertNotNull(manifest.getUnchanged(first));
+        parser.score("gamma");
+        assertEquals(1, parser.getResultCache().size());
+        parser.getIndex().close();
+
+        //Nothing changed, nothing is indexed twice, and cached results stay valid
+        parser.parse(dumps.toString(), index.toString(), 2);
+        assertEquals(3, parser.getIndex().numDocs());
+        assertEquals(1, parser.getResultCache().size());
+        parser.getIndex().close();
+
+        //A changed file has its old articles replaced
+        Files.write(second, "[[Gamma]]\nA new gamma article.\n[[Delta]]\nThe delta article.\n".getBytes(StandardCharsets.UTF_8));
+        parser.parse(dumps.toString(), index.toString(), 2);
+        assertEquals(4, parser.getIndex().numDocs());
+        assertEquals(0, parser.getResultCache().size());
+        ArrayList<ScoredDocument> hits = parser.score("new");
+        assertEquals(1, hits.size());
+        assertEquals("Gamma", hits.get(0).getDocumentID());
+        parser.getIndex().close();
+
+        //A deleted file has its articles deleted, and leaves the manifest
+        Files.delete(second);
+        parser.parse(dumps.toString(), index.toString(), 2);
+        assertEquals(2, parser.getIndex().numDocs());
+        assertTrue(parser.score("delta").isEmpty());
+        assertNull(new IndexManifest(index).get("enwiki-20140602-b.txt"));
+        parser.getIndex().close();
+
+        //A renamed file is indexed under its new name only
+        Path renamed = Files.move(first, dumps.resolve("enwiki-20140602-c.txt"));
+        parser.parse(dumps.toString(), index.toString(), 2);
+        assertEquals(2, parser.getIndex().numDocs());
+        assertEquals(1, parser.score("alpha").size());
+        manifest = new IndexManifest(index);
+        assertNull(manifest.get("enwiki-20140602-a.txt"));
+        assertNotNull(manifest.getUnchanged(renamed));
+        parser.getIndex().close();
+
+        //A full rebuild starts over
+        parser.parse(dumps.toString(), index.toString(), 2, true);
+        assertEquals(2, parser.getIndex().numDocs());
+        assertEquals(1, new IndexManifest(index).size());
+        parser.getIndex().close();
+    }
+
+    @Test
+    public void testBulkLoad() throws IOException {
+        IndexWriterConfig config = WikipediaParser.newWriterConfig();
+        assertTrue(config.getUseCompoundFile());
+        Path dumps = tempDir("watson-dumps");
+        Path index = tempDir("watson-index");
+        for (int i = 0; i < 3; i++){
+            Files.write(dumps.resolve("enwiki-20140602-" + i + ".txt"),
+                        ("[[Article " + i + "]]\nText of article " + i + ".\n").getBytes(StandardCharsets.UTF_8));
+        }
+        WikipediaParser.BULK_LOAD = true;
+        WikipediaParser.RAM_BUFFER_MB = 64;
+        WikipediaParser.FORCE_MERGE_SEGMENTS = 1;
+        config = WikipediaParser.newWriterConfig();
+        assertFalse(config.getUseCompoundFile());
+        assertEquals(64, (int) config.getRAMBufferSizeMB());
+        assertTrue(config.getMergePolicy().getNoCFSRatio() == 0.0);
+
+        //The files are committed together at the end, as one segment, and merging leaves it alone
+        WikipediaParser parser = new WikipediaParser();
+        parser.parse(dumps.toString(), index.toString(), 1);
+        assertEquals(3, parser.getIndex().numDocs());
+        assertEquals(1, parser.getIndex().leaves().size());
+        assertEquals(3, new IndexManifest(index).size());
+        parser.getIndex().close();
+
+        //Without merging, one commit at the end still means one segment
+        WikipediaParser.FORCE_MERGE_SEGMENTS = 0;
+        WikipediaParser.CHECKPOINT_MB = 0;
+        parser.parse(dumps.toString(), index.toString(), 1, true);
+        assertEquals(1, parser.getIndex().leaves().size());
+        parser.getIndex().close();
+
+        //Outside bulk load mode every file is committed, as a segment of its own
+        WikipediaParser.BULK_LOAD = false;
+        parser.parse(dumps.toString(), index.toString(), 1, true);
+        assertEquals(3, parser.getIndex().leaves().size());
+        parser.getIndex().close();
+    }
+
+    @Test
+    public void testNormalizationProfile() throws IOException {
+        assertEquals("washington post paper run", TextLemmenizer.lemmenizeText(
+            "The Washington Post's papers were running.", NormalizationProfile.FAST.getAnalyzer()));
+        //The analyzer was already used on this thread, turning STEM off must still take effect
+        TextLemmenizer.STEM = false;
+        assertEquals("washington post papers running", TextLemmenizer.lemmenizeText(
+            "The Washington Post's papers were running.", NormalizationProfile.FAST.getAnalyzer()));
+        TextLemmenizer.STEM = true;
+        assertEquals(NormalizationProfile.FAST, NormalizationProfile.fromName("fast"));
+        assertNull(NormalizationProfile.fromName("fastest"));
+
+        Path dumps = tempDir("watson-dumps");
+        Path index = tempDir("watson-index");
+        Files.write(dumps.resolve("enwiki-20140602-a.txt"),
+                    "[[Alpha]]\nThe alpha articles.\n[[Beta]]\nThe beta article.\n".getBytes(StandardCharsets.UTF_8));
+        TextLemmenizer.setProfile(NormalizationProfile.FAST);
+        WikipediaParser parser = new WikipediaParser();
+        parser.parse(dumps.toString(), index.toString(), 1);
+        assertEquals(NormalizationProfile.FAST, NormalizationProfile.of(parser.getIndex()));
+        parser.getIndex().close();
+
+        //Loading the index picks its profile back up for its queries, without switching the process's
+        TextLemmenizer.setProfile(NormalizationProfile.FULL);
+        DirectoryReader reader = DirectoryReader.open(FSDirectory.open(index));
+        parser.setLuceneIndex(reader);
+        assertEquals(NormalizationProfile.FULL, TextLemmenizer.getProfile());
+        assertEquals(NormalizationProfile.FAST, parser.getProfile());
+        assertEquals("alpha articl", TextLemmenizer.lemmenizeQuery("alpha articles", parser.getProfile()));
+        assertEquals("Alpha", parser.scoreQuery("The alpha articles", "").get(0).getDocumentID());
+        reader.close();
+
+        //Parsing with the other profile rebuilds the index rather than mixing terms
+        TextLemmenizer.setProfile(NormalizationProfile.FULL);
+        parser.parse(dumps.toString(), index.toString(), 1);
+        assertEquals(NormalizationProfile.FULL, NormalizationProfile.of(parser.getIndex()));
+        assertEquals(2, parser.getIndex().numDocs());
+        parser.getIndex().close();
+    }
+
+    @Test
+    public void testTitlesFromDocValues() throws IOException {
+        Path dumps = tempDir("watson-dumps");
+        Path index = tempDir("watson-index");
+        Files.write(dumps.resolve("enwiki-20140602-a.txt"),
+                    "[[The Washington Post]]\nA daily paper.\n[[Paris]]\nThe capital city.\n".getBytes(StandardCharsets.UTF_8));
+        WikipediaParser parser = new WikipediaParser();
+        parser.parse(dumps.toString(), index.toString(), 1);
+        //Nothing is stored, the title comes from doc values
+        assertEquals(0, parser.getIndex().document(0).getFields().size());
+        assertEquals("The Washington Post", parser.score("daily paper").get(0).getDocumentID());
+        parser.getIndex().close();
+
+        //An index from before doc values only has the stored title, brackets and all
+        Path legacy = tempDir("watson-legacy");
+        IndexWriter writer = new IndexWriter(FSDirectory.open(legacy), new IndexWriterConfig(TextLemmenizer.getAnalyzer()));
+        Document document = new Document();
+        document.add(new StringField("docid", "[[Broadway]]", Field.Store.YES));
+        document.add(new TextField("text", "A street of theaters.", Field.Store.YES));
+        writer.addDocument(document);
+        writer.close();
+        DirectoryReader reader = DirectoryReader.open(FSDirectory.open(legacy));
+        parser.setLuceneIndex(reader);
+        assertEquals("Broadway", parser.score("theater").get(0).getDocumentID());
+        reader.close();
+    }
+
+    @Test
+    public void testLucene7Index() throws IOException, URISyntaxException {
+        //Written by Lucene 7.7.1 the way the first WikipediaParser did: StandardAnalyzer, stored fields
+        Path fixture = Paths.get(AppTest.class.getResource("/lucene7-index").toURI());
+        Path index = tempDir("watson-index");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(fixture)) {
+            for (Path file : files){
+                Files.copy(file, index.resolve(file.getFileName()));
+            }
+        }
+        IndexReader reader = ShardedReader.open(index);
+        assertEquals(7, reader.leaves().get(0).reader().getMetaData().getCreatedVersionMajor());
+        assertFalse(NormalizationProfile.isRecorded(reader));
+        WikipediaParser parser = new WikipediaParser();
+        parser.setLuceneIndex(reader);
+        assertEquals("The Washington Post", parser.score("newspaper").get(0).getDocumentID());
+        assertEquals("Broadway", parser.score("theater").get(0).getDocumentID());
+        reader.close();
+
+        //Parsing into it rebuilds it, with today's codec and analyzer
+        Path dumps = tempDir("watson-dumps");
+        Files.write(dumps.resolve("enwiki-20140602-a.txt"), "[[Paris]]\nThe capital city.\n".getBytes(StandardCharsets.UTF_8));
+        parser.parse(dumps.toString(), index.toString(), 1);
+        assertEquals(1, parser.getIndex().numDocs());
+        assertTrue(NormalizationProfile.isRecorded(parser.getIndex()));
+        parser.getIndex().close();
+    }
+
+    @Test
+    public void testTitleDictionary() throws IOException {
+        Path dumps = tempDir("watson-dumps");
+        Path index = tempDir("watson-index");
+        Files.write(dumps.resolve("enwiki-20140602-a.txt"),
+                    "[[Café Society]]\nA jazz club.\n[[Paris]]\nThe capital city.\n".getBytes(StandardCharsets.UTF_8));
+        WikipediaParser parser = new WikipediaParser();
+        parser.parse(dumps.toString(), index.toString(), 1);
+        IndexReader reader = parser.getIndex();
+        LeafReader leaf = reader.leaves().get(0).reader();
+        TitleDictionary titles = TitleDictionary.open(leaf);
+        assertNotNull(titles);
+        assertEquals(leaf.maxDoc(), titles.size());
+        SortedDocValues docValues = leaf.getSortedDocValues("docid");
+        for (int doc = 0; doc < leaf.maxDoc(); doc++){
+            assertTrue(docValues.advanceExact(doc));
+            assertEquals(docValues.binaryValue().utf8ToString(), titles.getTitle(doc));
+        }
+        assertEquals("Café Society", parser.score(TextLemmenizer.lemmenizeQuery("jazz club")).get(0).getDocumentID());
+
+        //A second file adds a segment, the next parse gives it a dictionary too
+        Files.write(dumps.resolve("enwiki-20140602-b.txt"), "[[Rome]]\nThe eternal city.\n".getBytes(StandardCharsets.UTF_8));
+        parser.parse(dumps.toString(), index.toString(), 1);
+        IndexReader second = parser.getIndex();
+        assertTrue(second.leaves().size() > 1);
+        for (LeafReaderContext context : second.leaves()){
+            assertNotNull(TitleDictionary.open(context.reader()));
+        }
+        assertEquals("Rome", parser.score(TextLemmenizer.lemmenizeQuery("eternal")).get(0).getDocumentID());
+
+        //Merged away segments keep their dictionaries while open readers have them mapped
+        IndexWriter writer = new IndexWriter(FSDirectory.open(index), new IndexWriterConfig(TextLemmenizer.getAnalyzer()));
+        writer.forceMerge(1);
+        writer.close();
+        Path dictionaries = index.resolve(TitleDictionary.dirName);
+        Path unfinished = dictionaries.resolve("unfinished.titles.tmp"); //Another build still writing
+        Files.write(unfinished, new byte[0]);
+        DirectoryReader merged = DirectoryReader.open(FSDirectory.open(index));
+        TitleDictionary.build(merged);
+        assertEquals(4, dictionaries.toFile().list().length);
+        assertEquals("Rome", parser.score(TextLemmenizer.lemmenizeQuery("eternal")).get(0).getDocumentID());
+
+        //and lose them once those readers are closed, but files being written are left alone
+        parser.setLuceneIndex(merged);
+        second.close();
+        reader.close();
+        TitleDictionary.build(merged);
+        assertEquals(2, dictionaries.toFile().list().length);
+        assertTrue(Files.exists(unfinished));
+        assertNotNull(TitleDictionary.open(merged.leaves().get(0).reader()));
+        assertEquals("Paris", parser.score(TextLemmenizer.lemmenizeQuery("capital")).get(0).getDocumentID());
+        merged.close();
+    }
+
+    @Test
+    public void testConfigurationSweep() throws IOException {
+        List<ConfigurationSweep.Configuration> grid = ConfigurationSweep.parseGrid("similarity=bm25,bm25:0.9:0.4,classic,lm; categories=yes,no");
+        assertEquals(8, grid.size());
+        assertEquals("similarity=bm25 categories=yes rerank=0 wand=no", grid.get(0).toString());
+        assertThrows(IllegalArgumentException.class, () -> ConfigurationSweep.parseGrid("similarity=bm26"));
+        assertThrows(IllegalArgumentException.class, () -> ConfigurationSweep.parseGrid("depth=5"));
+        assertThrows(IllegalArgumentException.class, () -> ConfigurationSweep.parseGrid("wand=maybe"));
+        assertEquals("The capital of France", ConfigurationSweep.clueOf("The capital of France CITIES", "CITIES"));
+
+        Path dumps = tempDir("watson-dumps");
+        Path index = tempDir("watson-index");
+        Files.write(dumps.resolve("enwiki-20140602-a.txt"),
+                    ("[[Paris]]\nThe capital city of France.\n[[Berlin]]\nThe capital city of Germany.\n"
+                     + "[[Lyon]]\nA city of France on the Rhone.\n").getBytes(StandardCharsets.UTF_8));
+        WikipediaParser parser = new WikipediaParser();
+        parser.parse(dumps.toString(), index.toString(), 1);
+        HashMap<String, ArrayList<String>> questionKey = new HashMap<String, ArrayList<String>>();
+        HashMap<String, String> categories = new HashMap<String, String>();
+        questionKey.put("The capital of France CITIES", new ArrayList<String>(Arrays.asList("Paris")));
+        categories.put("The capital of France CITIES", "CITIES");
+        questionKey.put("On the Rhone CITIES", new ArrayList<String>(Arrays.asList("Lyon")));
+        categories.put("On the Rhone CITIES", "CITIES");
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        ConfigurationSweep sweep = new ConfigurationSweep(parser.getIndex(), pool, new FeatureReranker(1000), 2);
+        List<ConfigurationSweep.Result> results = sweep.evaluate(
+            ConfigurationSweep.parseGrid("similarity=bm25,classic;rerank=0,3;wand=no,yes"), questionKey, categories);
+        pool.shutdown();
+        assertEquals(8, results.size());
+        for (ConfigurationSweep.Result result : results){
+            assertEquals(2, result.questions);
+            assertEquals(1.0, result.precisionAt1(), 1e-9, result.configuration.toString());
+            assertEquals(0.1, result.precisionAt10(), 1e-9);
+            assertEquals(1.0, result.hitsAt10(), 1e-9);
+            assertEquals(1.0, result.meanReciprocalRank(), 1e-9);
+            assertTrue(result.latencyMillis(0.99) >= result.latencyMillis(0.5));
+        }
+        String table = ConfigurationSweep.toTable(results);
+        assertEquals(9, table.split("\n").length);
+        assertTrue(table.startsWith("Configuration"));
+        parser.getIndex().close();
+    }
+
+    @Test
+    public void testCompressedDumps() throws IOException {
+        Random random = new Random(25);
+        StringBuilder dump = new StringBuilder();
+        for (int i = 0; i < 60; i++){
+            dump.append("[[Article ").append(i).append("]]\n");
+            for (int j = 0; j < 10; j++){
+                dump.append("word").append(random.nextInt(300)).append(j % 5 == 4 ? "\n" : " ");
+            }
+        }
+        dump.append("[[Rhone]]\nA river of France.\n");
+        byte[] text = dump.toString().getBytes(StandardCharsets.UTF_8);
+
+        //Every 5 articles are their own bzip2 stream, like a multistream dump
+        ByteArrayOutputStream multistream = new ByteArrayOutputStream();
+        String[] articles = dump.toString().split("(?=\\[\\[)");
+        for (int i = 0; i < articles.length; i += 5){
+            try (BZip2CompressorOutputStream out = new BZip2CompressorOutputStream(new NonClosing(multistream))) {
+                for (int j = i; j < Math.min(i + 5, articles.length); j++){
+                    out.write(articles[j].getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(text);
+        }
+
+        int maxChunkSize = MultistreamBzip2InputStream.MAX_CHUNK_SIZE;
+        Path plain = tempDir("watson-dumps");
+        Path compressed = tempDir("watson-dumps");
+        Path plainIndex = tempDir("watson-index");
+        Path compressedIndex = tempDir("watson-index");
+        Path stdinIndex = tempDir("watson-index");
+
+        //Small chunks, so the streams are spread over many of them
+        MultistreamBzip2InputStream.CHUNK_SIZE = 256;
+        assertArrayEquals(text, readAll(new MultistreamBzip2InputStream(new ByteArrayInputStream(multistream.toByteArray()))));
+        //A single stream file is decompressed sequentially
+        MultistreamBzip2InputStream.MAX_CHUNK_SIZE = 512;
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        try (BZip2CompressorOutputStream out = new BZip2CompressorOutputStream(single)) {
+            out.write(text);
+        }
+        assertArrayEquals(text, readAll(new MultistreamBzip2InputStream(new ByteArrayInputStream(single.toByteArray()))));
+        MultistreamBzip2InputStream.MAX_CHUNK_SIZE = maxChunkSize;
+
+        Files.write(plain.resolve("enwiki-20140602-a.txt"), text);
+        Files.write(compressed.resolve("enwiki-20140602-a.txt.bz2"), multistream.toByteArray());
+        WikipediaParser parser = new WikipediaParser();
+        parser.parse(plain.toString(), plainIndex.toString(), 2);
+        String expected = parser.score(TextLemmenizer.lemmenizeQuery("river")).get(0).getDocumentID();
+        assertEquals("Rhone", expected);
+        assertEquals(61, parser.getIndex().numDocs());
+        parser.getIndex().close();
+
+        parser.parse(compressed.toString(), compressedIndex.toString(), 2);
+        assertEquals(61, parser.getIndex().numDocs());
+        assertEquals(expected, parser.score(TextLemmenizer.lemmenizeQuery("river")).get(0).getDocumentID());
+        parser.getIndex().close();
+
+        //Piped in, with no dump directory at all
+        parser.setInput(new ByteArrayInputStream(gzip.toByteArray()), "stdin");
+        parser.parse(stdinIndex.resolve("missing").toString(), stdinIndex.toString(), 1);
+        assertEquals(61, parser.getIndex().numDocs());
+        assertEquals(expected, parser.score(TextLemmenizer.lemmenizeQuery("river")).get(0).getDocumentID());
+        parser.getIndex().close();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0){
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    //Lets several compressed streams be written one after another to the same output
+    private static class NonClosing extends FilterOutputStream {
+        NonClosing(OutputStream out){
+            super(out);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    @Test
+    public void testEarlyTermination() throws IOException {
+        //Enough documents that whole postings blocks can be skipped, with a skewed vocabulary
+        Path index = tempDir("watson-index");
+        IndexWriter writer = new IndexWriter(FSDirectory.open(index), new IndexWriterConfig(new WhitespaceAnalyzer()));
+        Random random = new Random(483);
+        for (int i = 0; i < 5000; i++){
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < 40; j++){
+                text.append("w").append((int) Math.pow(random.nextInt(400), 1.5) / 8).append(' ');
+            }
+            Document document = new Document();
+            document.add(new SortedDocValuesField("docid", new BytesRef("Doc " + i)));
+            document.add(new TextField("text", text.toString(), Field.Store.NO));
+            writer.addDocument(document);
+        }
+        writer.close();
+
+        DirectoryReader reader = DirectoryReader.open(FSDirectory.open(index));
+        BatchSearcher searcher = new BatchSearcher(reader);
+        for (int q = 0; q < 50; q++){
+            StringBuilder query = new StringBuilder();
+            for (int j = 0; j < 15; j++){
+                query.append("w").append(random.nextInt(1000)).append(' ');
+            }
+            BatchSearcher.TOTAL_HITS_THRESHOLD = Integer.MAX_VALUE;
+            ArrayList<ScoredDocument> exhaustive = searcher.search(query.toString().trim());
+            BatchSearcher.TOTAL_HITS_THRESHOLD = BatchSearcher.hitsPerPage;
+            ArrayList<ScoredDocument> topOnly = searcher.search(query.toString().trim());
+            BatchSearcher.TOTAL_HITS_THRESHOLD = Integer.MAX_VALUE;
+            assertEquals(exhaustive.size(), topOnly.size());
+            for (int i = 0; i < exhaustive.size(); i++){
+                assertEquals(exhaustive.get(i).getDocumentID(), topOnly.get(i).getDocumentID());
+                assertEquals(exhaustive.get(i).getScore(), topOnly.get(i).getScore(), 1e-6);
+            }
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testReranker() throws IOException, InterruptedException {
+        Path dumps = tempDir("watson-dumps");
+        Path index = tempDir("watson-index");
+        Files.write(dumps.resolve("enwiki-20140602-a.txt"),
+                    ("[[Alpha]]\nThe harbor lighthouse. A harbor lighthouse keeper.\n"
+                     + "[[Beta]]\nThe harbor lighthouse stands on a rocky island with a small village and fishing boats.\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        WikipediaParser parser = new WikipediaParser();
+        parser.parse(dumps.toString(), index.toString(), 1);
+        String query = TextLemmenizer.lemmenizeQuery("harbor lighthouse");
+        String category = TextLemmenizer.lemmenizeQuery("ISLANDS");
+        assertEquals("Alpha", parser.score(query, category).get(0).getDocumentID());
+
+        //Only Beta has the category
+        parser.setReranker(new FeatureReranker(1000), 50);
+        ArrayList<ScoredDocument> reranked = parser.score(query, category);
+        assertEquals("Beta", reranked.get(0).getDocumentID());
+        assertEquals(2, reranked.size());
+
+        //Any reranker can be plugged in
+        parser.setReranker((reader, profile, lemmenizedQuery, lemmenizedCategory, candidates) -> {
+            ArrayList<ScoredDocument> reversed = new ArrayList<ScoredDocument>(candidates);
+            Collections.reverse(reversed);
+            return reversed;
+        }, 50);
+        assertEquals("Beta", parser.score(query, "").get(0).getDocumentID());
+
+        //A rerank that can't finish in its budget keeps the BM25 order, and isn't cached as reranked
+        ExecutorService busy = Executors.newSingleThreadExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        busy.submit(() -> { release.await(); return null; });
+        parser.setReranker(new FeatureReranker(busy, 500), 50);
+        assertEquals(0, parser.getResultCache().size());
+        assertEquals("Alpha", parser.score(query, category).get(0).getDocumentID());
+        assertEquals(0, parser.getResultCache().size());
+        //so once the pool is free the same query is reranked
+        release.countDown();
+        assertEquals("Beta", parser.score(query, category).get(0).getDocumentID());
+        assertEquals(1, parser.getResultCache().size());
+        assertEquals("Beta", parser.score(query, category).get(0).getDocumentID());
+        busy.shutdown();
+        parser.getIndex().close();
+
+        //Two matched terms, closest at positions 7 and 8
+        ArrayList<int[]> positions = new ArrayList<int[]>(Arrays.asList(new int[]{0, 0}, new int[]{5, 1}, new int[]{7, 0}, new int[]{8, 1}));
+        assertEquals(1.0, FeatureReranker.proximity(positions, 3), 1e-9);
+        positions = new ArrayList<int[]>(Arrays.asList(new int[]{0, 0}, new int[]{3, 1}));
+        assertEquals(0.5, FeatureReranker.proximity(positions, 2), 1e-9);
+        assertEquals(0.0, FeatureReranker.proximity(new ArrayList<int[]>(Arrays.asList(new int[]{4, 0}, new int[]{9, 0})), 2), 1e-9);
+    }
+
+    @Test
+    public void testShardedIndex() throws IOException {
+        Path dumps = tempDir("watson-dumps");
+        Path whole = tempDir("watson-index");
+        Path sharded = tempDir("watson-index");
+        StringBuilder articles = new StringBuilder();
+        for (int i = 0; i < 30; i++){
+            articles.append("[[Article ").append(i).append("]]\nA paper about the capital").append(i % 3 == 0 ? " and a newspaper" : "")
+                    .append(i % 5 == 0 ? " paper" : "").append(".\n");
+        }
+        Files.write(dumps.resolve("enwiki-20140602-a.txt"), articles.toString().getBytes(StandardCharsets.UTF_8));
+        WikipediaParser parser = new WikipediaParser();
+        parser.setResultCache(0, 0);
+        parser.parse(dumps.toString(), whole.toString(), 1);
+        ArrayList<ScoredDocument> expected = parser.score(TextLemmenizer.lemmenizeQuery("newspaper paper"));
+        parser.getIndex().close();
+
+        WikipediaParser.SHARDS = 3;
+        parser.parse(dumps.toString(), sharded.toString(), 2);
+        assertTrue(parser.getIndex() instanceof ShardedReader);
+        assertEquals(3, ShardedReader.countShards(sharded));
+        assertEquals(30, parser.getIndex().numDocs());
+        //Statistics are shared by the shards, so scores match the unsplit index
+        ArrayList<ScoredDocument> results = parser.score(TextLemmenizer.lemmenizeQuery("newspaper paper"));
+        assertEquals(expected.size(), results.size());
+        for (int i = 0; i < expected.size(); i++){
+            assertEquals(expected.get(i).getDocumentID(), results.get(i).getDocumentID());
+            assertEquals(expected.get(i).getScore(), results.get(i).getScore(), 1e-5);
+        }
+        parser.getIndex().close();
+
+        //Back to one shard rebuilds the index in place of the shards
+        WikipediaParser.SHARDS = 1;
+        parser.parse(dumps.toString(), sharded.toString(), 1);
+        assertFalse(parser.getIndex() instanceof ShardedReader);
+        assertEquals(0, ShardedReader.countShards(sharded));
+        assertEquals(30, parser.getIndex().numDocs());
+        parser.getIndex().close();
+    }
+
+    @Test
+    public void testSearcherRefresh() throws Exception {
+        Path dumps = tempDir("watson-dumps");
+        Path index = tempDir("watson-index");
+        Files.write(dumps.resolve("enwiki-20140602-a.txt"), "[[Paris]]\nThe capital city.\n".getBytes(StandardCharsets.UTF_8));
+        WikipediaParser serving = new WikipediaParser();
+        serving.parse(dumps.toString(), index.toString(), 1);
+        serving.setRefreshInterval(1);
+        String query = TextLemmenizer.lemmenizeQuery("capital city");
+
+        //Queries run nonstop while another parser adds files and commits
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        AtomicInteger queries = new AtomicInteger();
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++){
+            Thread thread = new Thread(() -> {
+                while (running.get()){
+                    try {
+                        assertFalse(serving.score(query).isEmpty());
+                        queries.incrementAndGet();
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        long refreshes = Metrics.counter("watson_index_refreshes_total", "").get();
+        WikipediaParser indexing = new WikipediaParser();
+        for (int i = 0; i < 5; i++){
+            Files.write(dumps.resolve("enwiki-20140602-b" + i + ".txt"),
+                        ("[[Capital " + i + "]]\nAnother capital city.\n").getBytes(StandardCharsets.UTF_8));
+            indexing.parse(dumps.toString(), index.toString(), 1);
+            indexing.getIndex().close();
+            Thread.sleep(20);
+        }
+        running.set(false);
+        for (Thread thread : threads){
+            thread.join();
+        }
+        assertTrue(errors.isEmpty(), () -> "A query failed: " + errors.get(0));
+        assertTrue(queries.get() > 0);
+        assertTrue(Metrics.counter("watson_index_refreshes_total", "").get() > refreshes);
+
+        //The newest commit is swapped in without a restart
+        serving.getSearchers().maybeRefreshBlocking();
+        assertEquals(6, serving.score(query).size());
+
+        //A rebuild with another profile is searched with it, without switching the process's profile
+        BatchSearcher old = serving.getSearchers().acquire();
+        TextLemmenizer.setProfile(NormalizationProfile.FAST);
+        indexing.parse(dumps.toString(), index.toString(), 1, true);
+        indexing.getIndex().close();
+        TextLemmenizer.setProfile(NormalizationProfile.FULL);
+        serving.getSearchers().maybeRefreshBlocking();
+        assertEquals(NormalizationProfile.FULL, TextLemmenizer.getProfile());
+        assertEquals(NormalizationProfile.FULL, old.getProfile());
+        assertEquals(6, old.search(query).size());
+        serving.getSearchers().release(old);
+        BatchSearcher rebuilt = serving.getSearchers().acquire();
+        try {
+            assertEquals(NormalizationProfile.FAST, rebuilt.getProfile());
+            assertEquals(6, rebuilt.search(TextLemmenizer.lemmenizeQuery("capital city", rebuilt.getProfile())).size());
+        } finally {
+            serving.getSearchers().release(rebuilt);
+        }
+
+        //Closing the searchers in the middle of a refresh stops it quietly
+        PrintStream err = System.err;
+        ByteArrayOutputStream logged = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(logged, true));
+        try {
+            for (int i = 0; i < 10; i++){
+                Files.write(dumps.resolve("enwiki-20140602-c" + i + ".txt"),
+                            ("[[City " + i + "]]\nYet another city.\n").getBytes(StandardCharsets.UTF_8));
+                indexing.parse(dumps.toString(), index.toString(), 1);
+                indexing.getIndex().close();
+                serving.score(query); //Starts searchers that look for the new commit every millisecond
+                Thread.sleep(i % 3);
+                serving.setRefreshInterval(1); //and closes them, likely while they're opening it
+            }
+            serving.getIndex().close();
+            serving.setLuceneIndex(null);
+            Thread.sleep(100); //Lets a refresh that was still running finish
+        } finally {
+            System.setErr(err);
+        }
+        assertFalse(logged.toString().contains("could not be refreshed"), logged::toString);
+    }
+
     @Test
     public void testParser() {
 //        WikipediaParser parser = new WikipediaParser();